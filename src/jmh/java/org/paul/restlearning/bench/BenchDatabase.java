@@ -0,0 +1,46 @@
+package org.paul.restlearning.bench;
+
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.dao.MessageDaoImpl;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.ConnectionUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Shared setup for the benchmarks: every forked JVM gets its own in-memory H2 database, created from
+// ResourceMedia.sql by ConnectionUtil, and seedMessages() fills it to the size a benchmark asks for.
+public final class BenchDatabase {
+    public static final String POOL_TYPE = "-Ddb.pool.type=h2";
+    public static final String URL = "-Ddb.url=jdbc:h2:mem:bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+    public static final String INIT_SCRIPT = "-Ddb.init-script=ResourceMedia.sql";
+    public static final String QUIET_LOGS = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn";
+
+    private static final int SEED_BATCH = 1000;
+
+    private BenchDatabase() {
+    }
+
+    // Resets the schema and inserts messages until the table holds `rows` of them (ids 1..rows).
+    public static void seedMessages(int rows) {
+        ConnectionUtil.resetTestDatabase();
+        IMessageDao dao = new MessageDaoImpl();
+        List<Message> batch = new ArrayList<>(SEED_BATCH);
+        // ResourceMedia.sql already inserts message 1
+        for (int i = 2; i <= rows; i++) {
+            batch.add(new Message(1, "benchmark message number " + i, 1669947792L + i));
+            if (batch.size() == SEED_BATCH || i == rows) {
+                dao.createMessages(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    public static List<Message> sampleMessages(int count) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            messages.add(new Message(i, 1 + i % 50, "benchmark message number " + i, 1669947792L + i));
+        }
+        return messages;
+    }
+}
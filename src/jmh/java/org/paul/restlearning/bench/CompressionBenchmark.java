@@ -0,0 +1,109 @@
+package org.paul.restlearning.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.model.Message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// What response compression costs and saves for message lists of 100 to 100k messages: the time to
+// encode and compress a body (the latency the server adds), and, printed after each trial, the bytes
+// that go on the wire and how long they take to send on a few typical links. Compression pays off
+// when the transfer time saved exceeds the CPU time added.
+//
+//   mvn -P bench compile exec:exec -Djmh.args="CompressionBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final String[] WORDS = {
+            "the", "a", "new", "post", "about", "java", "coffee", "today", "release", "finally", "shipped",
+            "weekend", "great", "team", "bug", "fixed", "meeting", "lunch", "running", "music", "thanks",
+            "everyone", "who", "came", "tonight", "photos", "soon", "learning", "database", "index", "query"};
+    private static final long[] LINK_BITS_PER_SECOND = {10_000_000L, 100_000_000L, 1_000_000_000L};
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int messages;
+
+    // none, or gzip-N with N the deflate level (Javalin's default is 6)
+    @Param({"none", "gzip-1", "gzip-6", "gzip-9"})
+    public String codec;
+
+    private final ObjectMapper mapper = JavalinJackson.Companion.defaultMapper();
+    private List<Message> messageList;
+    private long wireBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // varied text, unlike BenchDatabase.sampleMessages, so the compression ratio is realistic
+        Random random = new Random(42);
+        messageList = new ArrayList<>(messages);
+        for (int i = 1; i <= messages; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 3 + random.nextInt(25);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) text.append(' ');
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            messageList.add(new Message(i, 1 + random.nextInt(10_000), text.toString(), 1669947792L + i * 37L));
+        }
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingOutputStream wire = new CountingOutputStream();
+        if (codec.equals("none")) {
+            mapper.writeValue(wire, messageList);
+        } else {
+            int level = Integer.parseInt(codec.substring("gzip-".length()));
+            try (OutputStream gzip = new LeveledGzipOutputStream(wire, level)) {
+                mapper.writeValue(gzip, messageList);
+            }
+        }
+        wireBytes = wire.count;
+        return wire.count;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%n%s, %d messages: %d bytes on the wire", codec, messages, wireBytes));
+        for (long bitsPerSecond : LINK_BITS_PER_SECOND) {
+            double micros = wireBytes * 8 * 1e6 / bitsPerSecond;
+            line.append(String.format(", %.0f us at %d Mbit/s", micros, bitsPerSecond / 1_000_000));
+        }
+        System.out.println(line);
+    }
+
+    // GZIPOutputStream with a chosen deflate level, as Javalin's gzip compressor uses.
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
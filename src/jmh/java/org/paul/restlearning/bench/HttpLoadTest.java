@@ -0,0 +1,64 @@
+package org.paul.restlearning.bench;
+
+import org.paul.restlearning.metrics.LatencyHistogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop HTTP load generator for comparing server.virtual-threads=false and =true against a running server.
+// Each of `connections` virtual-thread clients sends a request, waits for the answer and repeats for `seconds`.
+// All clients share one IP, so start the server with -Drate-limit.enabled=false.
+//
+//   mvn -P bench compile exec:java -Dexec.mainClass=org.paul.restlearning.bench.HttpLoadTest \
+//       -Dexec.args="http://localhost:8080/messages/1 1000 30"
+public class HttpLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        URI target = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/messages/1");
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(target).timeout(Duration.ofSeconds(30)).build();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder ok = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            latency.record(System.nanoTime() - start);
+                            if (response.statusCode() < 400) ok.increment(); else failed.increment();
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        System.out.printf("%s  connections=%d  duration=%ds%n", target, connections, seconds);
+        System.out.printf("ok=%d  failed=%d  throughput=%.0f req/s%n", ok.sum(), failed.sum(), ok.sum() / (double) seconds);
+        System.out.printf("latency ms  p50=%.2f  p99=%.2f  p999=%.2f  max=%.2f%n",
+                latency.quantileNanos(0.5) / 1e6, latency.quantileNanos(0.99) / 1e6,
+                latency.quantileNanos(0.999) / 1e6, latency.maxNanos() / 1e6);
+    }
+}
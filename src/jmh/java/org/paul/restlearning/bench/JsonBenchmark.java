@@ -0,0 +1,81 @@
+package org.paul.restlearning.bench;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.model.Account;
+import org.paul.restlearning.model.Message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JSON encoding of the response bodies, using the same Jackson mapper Javalin uses for ctx.json().
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int messages;
+
+    private final ObjectMapper mapper = JavalinJackson.Companion.defaultMapper();
+    private List<Message> messageList;
+    private Message message;
+    private Account account;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messageList = BenchDatabase.sampleMessages(messages);
+        message = messageList.get(0);
+        account = new Account(1, "testuser1", "password");
+    }
+
+    @Benchmark
+    public byte[] encodeMessageList() throws IOException {
+        return mapper.writeValueAsBytes(messageList);
+    }
+
+    @Benchmark
+    public long streamMessageList() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (Message m : messageList) {
+                generator.writeObject(m);
+            }
+            generator.writeEndArray();
+        }
+        return out.count;
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] encodeAccount() throws IOException {
+        return mapper.writeValueAsBytes(account);
+    }
+
+    // Discards bytes like a socket would, so streaming isn't charged for buffering the whole body.
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
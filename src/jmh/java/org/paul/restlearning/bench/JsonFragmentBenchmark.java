@@ -0,0 +1,76 @@
+package org.paul.restlearning.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.controller.MessageJsonCache;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Response bodies for message lists: Jackson serializing every message on every request, as ctx.json
+// did, against concatenating cached fragments into a pooled buffer. Run with -prof gc to compare the
+// allocation rate (gc.alloc.rate.norm is bytes per response):
+//
+//   mvn -P bench compile exec:exec -Djmh.args="JsonFragmentBenchmark -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class JsonFragmentBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int messages;
+
+    private final ObjectMapper mapper = JavalinJackson.Companion.defaultMapper();
+    private final OutputStream sink = new DiscardingOutputStream();
+    private MessageJsonCache cache;
+    private List<Message> messageList;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        messageList = BenchDatabase.sampleMessages(messages);
+        message = messageList.get(0);
+        cache = new MessageJsonCache(mapper, 10_000, 1, TimeUnit.HOURS, new BufferPool(64, 16 * 1024, 1024 * 1024));
+        cache.writeArray(messageList, sink);   // warm the fragments
+    }
+
+    @Benchmark
+    public void jacksonList() throws IOException {
+        mapper.writeValue(sink, messageList);
+    }
+
+    @Benchmark
+    public void cachedList() throws IOException {
+        cache.writeArray(messageList, sink);
+    }
+
+    @Benchmark
+    public byte[] jacksonMessage() throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public byte[] cachedMessage() {
+        return cache.encode(message);
+    }
+
+    // Stands in for a socket that never blocks. Unlike OutputStream.nullOutputStream() it survives
+    // close(), which Jackson's writeValue calls on its target.
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
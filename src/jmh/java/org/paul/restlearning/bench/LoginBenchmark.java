@@ -0,0 +1,75 @@
+package org.paul.restlearning.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.dao.AccountDaoImpl;
+import org.paul.restlearning.model.Account;
+import org.paul.restlearning.service.AccountExistenceIndex;
+import org.paul.restlearning.service.AccountService;
+import org.paul.restlearning.service.CredentialService;
+import org.paul.restlearning.service.PasswordHasher;
+import org.paul.restlearning.util.ConnectionUtil;
+import org.paul.restlearning.util.JdbcExecutor;
+import org.paul.restlearning.util.TooManyRequestsException;
+
+import java.util.concurrent.TimeUnit;
+
+// Login throughput at saturation: more client threads than hashing threads, with the login cache
+// on (repeat logins) and defeated (every login pays for PBKDF2). Shed logins count as completed
+// operations that returned null, so compare with the auth_hash_rejected_total figure when tuning.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = {BenchDatabase.POOL_TYPE, BenchDatabase.URL, BenchDatabase.INIT_SCRIPT,
+        BenchDatabase.QUIET_LOGS})
+public class LoginBenchmark {
+
+    @Param({"120000"})
+    public int iterations;
+
+    private CredentialService credentialService;
+    private JdbcExecutor jdbc;
+    private AccountService accountService;
+    private Account credentials;
+    private Account wrongPassword;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        credentialService = new CredentialService(new PasswordHasher(iterations),
+                Runtime.getRuntime().availableProcessors(), 256, 10_000, 60, TimeUnit.SECONDS);
+        jdbc = new JdbcExecutor(10, 1024);
+        accountService = new AccountService(new AccountDaoImpl(),
+                new AccountExistenceIndex(30, TimeUnit.SECONDS), credentialService, jdbc);
+        accountService.register(new Account("benchmark-user", "benchmark-password"));
+        credentials = new Account("benchmark-user", "benchmark-password");
+        wrongPassword = new Account("benchmark-user", "not-the-password");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbc.close();
+        credentialService.close();
+    }
+
+    @Benchmark
+    public Account loginCached() {
+        return login(credentials);
+    }
+
+    @Benchmark
+    public Account loginUncached() {
+        // a failed login is never cached, so every call is a full PBKDF2 verification
+        return login(wrongPassword);
+    }
+
+    private Account login(Account account) {
+        try {
+            return accountService.login(new Account(account.getUsername(), account.getPassword()));
+        } catch (TooManyRequestsException e) {
+            return null;
+        }
+    }
+}
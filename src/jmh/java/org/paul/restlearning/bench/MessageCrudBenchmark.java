@@ -0,0 +1,84 @@
+package org.paul.restlearning.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.dao.AccountDaoImpl;
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.dao.MessageDaoImpl;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.service.AccountService;
+import org.paul.restlearning.service.CredentialService;
+import org.paul.restlearning.service.MessageService;
+import org.paul.restlearning.service.PasswordHasher;
+import org.paul.restlearning.util.JdbcExecutor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Single-message hot paths through the DAO and through MessageService (validation, caches, account checks).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchDatabase.POOL_TYPE, BenchDatabase.URL, BenchDatabase.INIT_SCRIPT,
+        BenchDatabase.QUIET_LOGS})
+public class MessageCrudBenchmark {
+    private static final int ROWS = 10_000;
+
+    private IMessageDao messageDao;
+    private CredentialService credentials;
+    private JdbcExecutor jdbc;
+    private MessageService messageService;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        BenchDatabase.seedMessages(ROWS);
+        messageDao = new MessageDaoImpl();
+        credentials = new CredentialService(new PasswordHasher(120_000), Runtime.getRuntime().availableProcessors(),
+                256, 10_000, 60, TimeUnit.SECONDS);
+        jdbc = new JdbcExecutor(10, 1024);
+        AccountService accountService = new AccountService(new AccountDaoImpl(), credentials, jdbc);
+        accountService.warmUpExistenceIndex();
+        messageService = new MessageService(messageDao, accountService, jdbc);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbc.close();
+        credentials.close();
+    }
+
+    @Benchmark
+    public Message daoFindById() {
+        return messageDao.findMessageById(randomId());
+    }
+
+    @Benchmark
+    public Message daoCreate() {
+        return messageDao.createMessage(new Message(1, "created by benchmark", 1669947792L));
+    }
+
+    @Benchmark
+    public Message daoUpdate() {
+        return messageDao.updateMessageText(randomId(), "updated by benchmark");
+    }
+
+    @Benchmark
+    public Message serviceGetById() {
+        return messageService.getMessageById(randomId());
+    }
+
+    @Benchmark
+    public Message serviceCreate() {
+        return messageService.createMessage(new Message(1, "created by benchmark", 1669947792L));
+    }
+
+    @Benchmark
+    public Message serviceUpdate() {
+        return messageService.updateMessageText(randomId(), "updated by benchmark");
+    }
+
+    private static int randomId() {
+        return ThreadLocalRandom.current().nextInt(1, ROWS + 1);
+    }
+}
@@ -0,0 +1,47 @@
+package org.paul.restlearning.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.dao.MessageDaoImpl;
+import org.paul.restlearning.model.Message;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// GET /messages at the DAO level: materializing the whole table versus streaming it row by row.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchDatabase.POOL_TYPE, BenchDatabase.URL, BenchDatabase.INIT_SCRIPT,
+        BenchDatabase.QUIET_LOGS})
+public class MessageListBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private IMessageDao messageDao;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        BenchDatabase.seedMessages(rows);
+        messageDao = new MessageDaoImpl();
+    }
+
+    @Benchmark
+    public List<Message> findAllMessages() {
+        return messageDao.findAllMessages();
+    }
+
+    @Benchmark
+    public void forEachMessage(Blackhole blackhole) {
+        messageDao.forEachMessage(blackhole::consume);
+    }
+
+    @Benchmark
+    public List<Message> firstKeysetPage() {
+        return messageDao.findMessagesAfter(rows / 2, 100);
+    }
+}
@@ -0,0 +1,116 @@
+package org.paul.restlearning.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.dao.MemoryMessageDao;
+import org.paul.restlearning.dao.MessageDaoImpl;
+import org.paul.restlearning.model.Message;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The IMessageDao calls behind the API against the database (MessageDaoImpl on in-memory H2) and
+// against MemoryMessageDao, which logs writes to a local file. Setup prints the heap per message
+// each one holds: the columnar store's own footprint, and the Message objects of a findAllMessages.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchDatabase.POOL_TYPE, BenchDatabase.URL, BenchDatabase.INIT_SCRIPT,
+        BenchDatabase.QUIET_LOGS})
+public class MessageStoreBenchmark {
+    private static final int ROWS = 100_000;
+    private static final int PAGE = 20;
+
+    @Param({"jdbc", "memory"})
+    public String store;
+
+    private IMessageDao messageDao;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException {
+        BenchDatabase.seedMessages(ROWS);
+        MessageDaoImpl database = new MessageDaoImpl();
+        if (store.equals("memory")) {
+            dir = Files.createTempDirectory("message-store-bench");
+            MemoryMessageDao memory = new MemoryMessageDao(dir, false, 64L * 1024 * 1024, null);
+            List<Message> all = database.findAllMessages();
+            memory.importMessages(all);
+            System.out.printf("%nmemory store: %d bytes per message%n", memory.memoryBytes() / memory.size());
+            messageDao = memory;
+        } else {
+            System.out.printf("%nrow objects: %d bytes per message%n", rowObjectBytes(database) / ROWS);
+            messageDao = database;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        if (messageDao instanceof MemoryMessageDao memory) {
+            memory.close();
+            try (var files = Files.list(dir)) {
+                for (Path file : files.toList()) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Benchmark
+    public Message findById() {
+        return messageDao.findMessageById(randomId());
+    }
+
+    @Benchmark
+    public Message create() {
+        return messageDao.createMessage(new Message(1, "created by benchmark", 1669947792L + ROWS));
+    }
+
+    @Benchmark
+    public Message update() {
+        return messageDao.updateMessageText(randomId(), "updated by benchmark");
+    }
+
+    // A timeline page further back: the 20 messages of account 1 before a random one.
+    @Benchmark
+    public List<Message> accountPage() {
+        int id = randomId();
+        return messageDao.findMessagesByAccountIdBefore(1, 1669947792L + id, id, PAGE);
+    }
+
+    // An incremental sync from a random point.
+    @Benchmark
+    public List<Message> since() {
+        return messageDao.findMessagesSince(0, randomId(), Long.MIN_VALUE, Long.MAX_VALUE, PAGE);
+    }
+
+    private static int randomId() {
+        return ThreadLocalRandom.current().nextInt(1, ROWS + 1);
+    }
+
+    // Heap retained by the Message objects of the whole table, with texts decoded into Strings of their
+    // own as a driver reading from the network does (H2 in memory hands back the Strings it stores).
+    private static long rowObjectBytes(IMessageDao dao) {
+        long before = usedHeap();
+        List<Message> all = dao.findAllMessages();
+        for (Message message : all) {
+            message.setMessage_text(new String(message.getMessage_text().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        }
+        long after = usedHeap();
+        Reference.reachabilityFence(all);
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,61 @@
+package org.paul.restlearning.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.paul.restlearning.util.RateLimiter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// What the rate limiter adds to a request when many threads take permits at once:
+//   hotKey      every thread charges the same key, the worst case (one client flooding, one CAS target)
+//   spreadKeys  each call charges one of `keys` accounts, the usual case
+//   stripedKey  each thread charges its own stripe, as the server-wide limit does
+// Rates are high enough that permits are always granted, so the numbers are the cost of granting.
+// Set the thread count to the core count of the target machine:
+//
+//   mvn -P bench compile exec:exec -Djmh.args="RateLimiterBenchmark -t 32"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class RateLimiterBenchmark {
+    private static final Object HOT_KEY = "203.0.113.7";
+
+    @Param({"100000"})
+    public int keys;
+
+    private RateLimiter limiter;
+    private Integer[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limiter = new RateLimiter(1e9, Integer.MAX_VALUE, 30, TimeUnit.SECONDS);
+        accountIds = new Integer[keys];
+        for (int i = 0; i < keys; i++) {
+            accountIds[i] = i + 1;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        limiter.close();
+    }
+
+    @Benchmark
+    public long hotKey() {
+        return limiter.tryAcquire(HOT_KEY);
+    }
+
+    @Benchmark
+    public long spreadKeys() {
+        return limiter.tryAcquire(accountIds[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    @Benchmark
+    public long stripedKey() {
+        return limiter.tryAcquire((int) (Thread.currentThread().threadId() & 63));
+    }
+}
@@ -0,0 +1,128 @@
+package org.paul.restlearning.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.paul.restlearning.metrics.LatencyHistogram;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.service.MessageChangeListener;
+import org.paul.restlearning.util.BufferPool;
+import org.paul.restlearning.util.LruCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the encoded UTF-8 JSON of recently served messages, so hot messages are serialized once
+// rather than on every response. Lists are assembled by concatenating the cached fragments into a
+// pooled buffer. A fragment is only used if it was encoded from the same field values as the message
+// being written, so a fragment that raced with an update can never be served in its place; updates
+// and deletes also drop the fragment to free the memory early. Encoding time, hits included, is
+// recorded to the serialize timer; writing the bytes to the client is not.
+public class MessageJsonCache implements MessageChangeListener {
+    private static final byte[] EMPTY_ARRAY = {'[', ']'};
+
+    private final ObjectMapper mapper;
+    private final LruCache<Integer, Fragment> fragments;
+    private final BufferPool buffers;
+    private final LatencyHistogram serialize;
+
+    public MessageJsonCache(ObjectMapper mapper, int maxEntries, long ttl, TimeUnit unit, BufferPool buffers) {
+        this(mapper, maxEntries, ttl, unit, buffers, new LatencyHistogram());
+    }
+
+    public MessageJsonCache(ObjectMapper mapper, int maxEntries, long ttl, TimeUnit unit, BufferPool buffers,
+                            LatencyHistogram serialize) {
+        this.mapper = mapper;
+        this.fragments = new LruCache<>(maxEntries, ttl, unit);
+        this.buffers = buffers;
+        this.serialize = serialize;
+    }
+
+    // @return the JSON encoding of message, from the cache when it is current
+    public byte[] encode(Message message) {
+        long start = System.nanoTime();
+        try {
+            return fragment(message);
+        } finally {
+            serialize.record(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] fragment(Message message) {
+        Fragment fragment = fragments.get(message.getMessage_id());
+        if (fragment != null && fragment.encodes(message)) {
+            return fragment.json;
+        }
+        try {
+            byte[] json = mapper.writeValueAsBytes(message);
+            fragments.put(message.getMessage_id(), new Fragment(message, json));
+            return json;
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes messages as a JSON array in one write, built from cached fragments.
+    public void writeArray(List<Message> messages, OutputStream out) throws IOException {
+        if (messages.isEmpty()) {
+            out.write(EMPTY_ARRAY);
+            return;
+        }
+        BufferPool.Buffer buffer = buffers.acquire();
+        try {
+            long start = System.nanoTime();
+            buffer.append((byte) '[');
+            for (int i = 0; i < messages.size(); i++) {
+                if (i > 0) buffer.append((byte) ',');
+                buffer.append(fragment(messages.get(i)));
+            }
+            buffer.append((byte) ']');
+            serialize.record(System.nanoTime() - start);
+            buffer.writeTo(out);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    @Override
+    public void onCreated(Message message) {
+        // encoded lazily on first read
+    }
+
+    @Override
+    public void onUpdated(Message message) {
+        fragments.invalidate(message.getMessage_id());
+    }
+
+    @Override
+    public void onDeleted(Message message) {
+        fragments.invalidate(message.getMessage_id());
+    }
+
+    public LruCache<Integer, ?> cache() {
+        return fragments;
+    }
+
+    // The encoded bytes plus the field values they were encoded from.
+    static final class Fragment {
+        private final int postedBy;
+        private final long timePostedEpoch;
+        private final String messageText;
+        private final byte[] json;
+
+        Fragment(Message message, byte[] json) {
+            this.postedBy = message.getPosted_by();
+            this.timePostedEpoch = message.getTime_posted_epoch();
+            this.messageText = message.getMessage_text();
+            this.json = json;
+        }
+
+        boolean encodes(Message message) {
+            return postedBy == message.getPosted_by()
+                    && timePostedEpoch == message.getTime_posted_epoch()
+                    && (messageText == null ? message.getMessage_text() == null : messageText.equals(message.getMessage_text()));
+        }
+    }
+}
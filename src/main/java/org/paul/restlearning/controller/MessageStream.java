@@ -0,0 +1,458 @@
+package org.paul.restlearning.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.sse.SseClient;
+import jakarta.servlet.ServletOutputStream;
+import org.eclipse.jetty.server.HttpOutput;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.service.MessageChangeListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Live feed of message changes for GET /messages/stream, as Server-Sent Events. Each change is
+// encoded once into a frame (id, event: created|updated|deleted, data: the message JSON) and the
+// same bytes are handed to every subscriber that wants it, all of them or one account's followers.
+//
+// The thread making a change only queues it; one dispatcher thread encodes the frames and fans them
+// out, so a write never waits on the subscribers. A burst no subscriber buffer could hold (a bulk
+// import, more than bufferSize changes queued at once, or a gap in the invalidation bus) is not sent
+// frame by frame: every subscriber gets a "reset" event instead, the same one a client resuming from
+// too far back gets, and resyncs through GET /messages?since_id=.
+//
+// An idle subscriber holds no thread: Javalin keeps the response open as an async servlet response,
+// and a subscriber's frames are written by a virtual thread started only when something is queued
+// for it. Each subscriber's queue is bounded; a client that stops reading fills it (its writes block
+// on a full socket) and is disconnected instead of being buffered without limit. It reconnects with
+// Last-Event-ID and catches up from the replay buffer.
+//
+// Event ids are "<stream>-<sequence>", <stream> being fixed for the life of the process. The last
+// replaySize frames are kept so a reconnecting client continues exactly where it stopped; if its
+// Last-Event-ID is older than that, or from an earlier process, it gets a "reset" event and should
+// resync through GET /messages?since_id= before following the stream again.
+public class MessageStream implements MessageChangeListener, AutoCloseable {
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final long RETRY_MILLIS = 3000;
+    private static final byte[] RESET = "{}".getBytes(StandardCharsets.US_ASCII);
+    // queued in place of the changes of a burst
+    private static final Change RESET_ALL = new Change(null, null);
+
+    private final ObjectMapper mapper;
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final String streamId = Long.toString(System.currentTimeMillis(), 36);
+
+    // All guarded by this. replay[seq % length] holds the frame with that sequence number.
+    private final Frame[] replay;
+    private long sequence;
+    private final Set<Subscriber> everyone = new HashSet<>();
+    private final Map<Integer, Set<Subscriber>> byAccount = new HashMap<>();
+    private int subscribers;
+
+    // Changes waiting for the dispatcher; guarded by itself, never while holding this.
+    private final ArrayDeque<Change> pending = new ArrayDeque<>();
+    private boolean dispatching;
+
+    private final ExecutorService dispatcher;
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeat;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // @param bufferSize frames queued for one subscriber before it is considered too slow and dropped
+    // @param replaySize frames kept for clients resuming with Last-Event-ID
+    // @param heartbeatInterval how often idle connections get a comment line, which keeps proxies and
+    //                          Jetty's idle timeout from closing them and finds clients that went away
+    public MessageStream(ObjectMapper mapper, int bufferSize, int replaySize, int maxSubscribers,
+                         long heartbeatInterval, TimeUnit unit) {
+        this.mapper = mapper;
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.replay = new Frame[Math.max(1, replaySize)];
+        this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "message-stream-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-stream-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeat, heartbeatInterval, heartbeatInterval, unit);
+    }
+
+    // Starts streaming to client and keeps its response open until either side closes it.
+    // @param accountId only this account's messages, or 0 for every message
+    // @param lastEventId the id of the last event the client saw, or null for live events only
+    public void subscribe(SseClient client, int accountId, String lastEventId) {
+        boolean admitted;
+        synchronized (this) {
+            admitted = subscribers < maxSubscribers;
+            if (admitted) subscribers++;
+        }
+        if (!admitted) {
+            rejected.increment();
+            // answer with a long retry so EventSource comes back later rather than hammering us
+            try {
+                write(client, ("retry: " + RETRY_MILLIS * 10 + "\n\n").getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                // gone already
+            }
+            return;
+        }
+
+        Subscriber subscriber = new Subscriber(client, accountId);
+        client.keepAlive();
+        client.onClose(() -> unsubscribe(subscriber));
+        synchronized (this) {
+            if (client.terminated()) {
+                subscribers--;
+                return;
+            }
+
+            long from = resumePoint(lastEventId);
+            if (from < 0) {
+                subscriber.offer(frame(sequence, "reset", RESET), false);
+            } else {
+                // replayed frames go in ahead of any live ones, and aren't subject to the bound
+                for (long seq = from + 1; seq <= sequence; seq++) {
+                    Frame frame = replay[(int) (seq % replay.length)];
+                    if (frame != null && (accountId == 0 || frame.accountId == accountId)) {
+                        subscriber.offer(frame.bytes, false);
+                    }
+                }
+            }
+            // the client's position becomes "now" even if nothing above was for it
+            subscriber.offer(("retry: " + RETRY_MILLIS + "\nid: " + eventId(sequence) + "\n\n")
+                    .getBytes(StandardCharsets.US_ASCII), false);
+
+            if (accountId == 0) {
+                everyone.add(subscriber);
+            } else {
+                byAccount.computeIfAbsent(accountId, id -> new HashSet<>()).add(subscriber);
+            }
+        }
+    }
+
+    @Override
+    public void onCreated(Message message) {
+        publish("created", message);
+    }
+
+    @Override
+    public void onUpdated(Message message) {
+        publish("updated", message);
+    }
+
+    @Override
+    public void onDeleted(Message message) {
+        publish("deleted", message);
+    }
+
+    @Override
+    public void onImported(List<Message> messages) {
+        reset();
+    }
+
+    // Tells every subscriber to resync, for changes that won't be streamed one by one.
+    public void reset() {
+        enqueue(RESET_ALL);
+    }
+
+    public synchronized int subscribers() {
+        return subscribers;
+    }
+
+    public long events() {
+        return events.sum();
+    }
+
+    // Subscribers disconnected for not keeping up.
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    // Connections turned away because maxSubscribers were already open.
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    private void publish(String type, Message message) {
+        // the caller keeps its Message; the frame is encoded later
+        enqueue(new Change(type, new Message(message.getMessage_id(), message.getPosted_by(),
+                message.getMessage_text(), message.getTime_posted_epoch())));
+        events.increment();
+    }
+
+    private void enqueue(Change change) {
+        synchronized (pending) {
+            if (change == RESET_ALL || pending.size() >= bufferSize) {
+                // whatever is still queued is covered by the reset
+                pending.clear();
+                change = RESET_ALL;
+            }
+            pending.add(change);
+            if (!dispatching) {
+                dispatching = true;
+                dispatcher.execute(this::dispatch);
+            }
+        }
+    }
+
+    // Runs on the dispatcher thread until the queue is empty.
+    private void dispatch() {
+        while (true) {
+            Change change;
+            synchronized (pending) {
+                change = pending.poll();
+                if (change == null) {
+                    dispatching = false;
+                    return;
+                }
+            }
+            if (change == RESET_ALL) {
+                resetAll();
+            } else {
+                broadcast(change);
+            }
+        }
+    }
+
+    private void broadcast(Change change) {
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(change.message);
+        } catch (JsonProcessingException e) {
+            // nothing a subscriber could do with it
+            e.printStackTrace();
+            return;
+        }
+        int accountId = change.message.getPosted_by();
+        synchronized (this) {
+            long seq = ++sequence;
+            Frame frame = new Frame(accountId, frame(seq, change.type, json));
+            replay[(int) (seq % replay.length)] = frame;
+            deliver(everyone, frame.bytes);
+            deliver(byAccount.get(accountId), frame.bytes);
+        }
+    }
+
+    // Moves the sequence past the replay buffer, so no earlier Last-Event-ID can resume, and replaces
+    // whatever each subscriber still has queued with a reset event.
+    private synchronized void resetAll() {
+        sequence += replay.length + 1;
+        Arrays.fill(replay, null);
+        byte[] frame = frame(sequence, "reset", RESET);
+        for (Subscriber subscriber : everyone) subscriber.reset(frame);
+        for (Set<Subscriber> followers : byAccount.values()) {
+            for (Subscriber subscriber : followers) subscriber.reset(frame);
+        }
+    }
+
+    private synchronized void sendHeartbeat() {
+        deliver(everyone, HEARTBEAT);
+        for (Set<Subscriber> followers : byAccount.values()) {
+            deliver(followers, HEARTBEAT);
+        }
+    }
+
+    // Called with the lock held.
+    private void deliver(Set<Subscriber> targets, byte[] frame) {
+        if (targets == null) return;
+        for (Subscriber subscriber : targets) {
+            if (!subscriber.offer(frame, true)) {
+                dropped.increment();
+                subscriber.drop();
+            }
+        }
+    }
+
+    private synchronized void unsubscribe(Subscriber subscriber) {
+        boolean removed;
+        if (subscriber.accountId == 0) {
+            removed = everyone.remove(subscriber);
+        } else {
+            Set<Subscriber> followers = byAccount.get(subscriber.accountId);
+            removed = followers != null && followers.remove(subscriber);
+            if (followers != null && followers.isEmpty()) {
+                byAccount.remove(subscriber.accountId);
+            }
+        }
+        if (removed) subscribers--;
+    }
+
+    // @return the sequence number to replay after, or -1 if the client's position is no longer known.
+    // Called with the lock held.
+    private long resumePoint(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return sequence;
+        }
+        int dash = lastEventId.lastIndexOf('-');
+        if (dash < 0 || !lastEventId.substring(0, dash).equals(streamId)) {
+            return -1;
+        }
+        long seq;
+        try {
+            seq = Long.parseLong(lastEventId.substring(dash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        // seq + 1 .. sequence must all still be in the replay buffer
+        if (seq > sequence || seq < sequence - replay.length || seq < 0) {
+            return -1;
+        }
+        return seq;
+    }
+
+    // Writes and flushes. Jetty's OutputStream.write copies small writes into an aggregation buffer
+    // (32KB of direct memory) that an open response keeps until it completes, which for 10k idle streams
+    // is 300MB+; HttpOutput.write(ByteBuffer) sends straight from our array and retains nothing.
+    private static void write(SseClient client, byte[] bytes) throws IOException {
+        ServletOutputStream out = client.ctx().res().getOutputStream();
+        if (out instanceof HttpOutput jetty) {
+            jetty.write(ByteBuffer.wrap(bytes));
+        } else {
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    private String eventId(long seq) {
+        return streamId + '-' + seq;
+    }
+
+    private byte[] frame(long seq, String type, byte[] json) {
+        // Jackson escapes line breaks inside strings, so the JSON always fits on one data line
+        byte[] head = ("id: " + eventId(seq) + "\nevent: " + type + "\ndata: ").getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[head.length + json.length + 2];
+        System.arraycopy(head, 0, frame, 0, head.length);
+        System.arraycopy(json, 0, frame, head.length, json.length);
+        frame[frame.length - 2] = '\n';
+        frame[frame.length - 1] = '\n';
+        return frame;
+    }
+
+    private static final class Change {
+        final String type;
+        final Message message;
+
+        Change(String type, Message message) {
+            this.type = type;
+            this.message = message;
+        }
+    }
+
+    private static final class Frame {
+        final int accountId;
+        final byte[] bytes;
+
+        Frame(int accountId, byte[] bytes) {
+            this.accountId = accountId;
+            this.bytes = bytes;
+        }
+    }
+
+    // One open connection. Frames are queued by the publishing thread and written by a virtual thread
+    // that runs only while the queue is non-empty.
+    private final class Subscriber implements Runnable {
+        final SseClient client;
+        final int accountId;
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private boolean writing;
+        private boolean closing;
+
+        Subscriber(SseClient client, int accountId) {
+            this.client = client;
+            this.accountId = accountId;
+        }
+
+        // @param bounded whether the frame counts against bufferSize
+        // @return false if the queue is full
+        synchronized boolean offer(byte[] frame, boolean bounded) {
+            if (closing) return true;
+            if (bounded && queue.size() >= bufferSize) return false;
+            queue.add(frame);
+            if (!writing) {
+                writing = true;
+                writers.execute(this);
+            }
+            return true;
+        }
+
+        // Whatever is queued is superseded by frame.
+        synchronized void reset(byte[] frame) {
+            if (closing) return;
+            queue.clear();
+            offer(frame, false);
+        }
+
+        // Too slow: forget what's queued and hang up. The close runs on another thread since it
+        // completes the response, which is no work to do while holding the stream's lock.
+        synchronized void drop() {
+            closing = true;
+            queue.clear();
+            writers.execute(client::close);
+        }
+
+        // Everything queued as one array, so a backlog goes out in one write. Called with the lock held.
+        private byte[] concat() {
+            int length = 0;
+            for (byte[] frame : queue) length += frame.length;
+            byte[] batch = new byte[length];
+            int offset = 0;
+            for (byte[] frame; (frame = queue.poll()) != null; offset += frame.length) {
+                System.arraycopy(frame, 0, batch, offset, frame.length);
+            }
+            return batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] batch;
+                    synchronized (this) {
+                        if (queue.isEmpty()) {
+                            writing = false;
+                            return;
+                        }
+                        batch = queue.size() == 1 ? queue.poll() : concat();
+                    }
+                    write(client, batch);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the client went away
+                synchronized (this) {
+                    closing = true;
+                    writing = false;
+                    queue.clear();
+                }
+                client.close();
+            }
+        }
+    }
+}
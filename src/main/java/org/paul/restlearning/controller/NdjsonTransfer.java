@@ -0,0 +1,224 @@
+package org.paul.restlearning.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.paul.restlearning.model.Account;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.service.AccountService;
+import org.paul.restlearning.service.MessageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Bulk export and import as newline-delimited JSON, one record per line:
+//   {"type":"account","account_id":1,"username":"...","password":"<stored hash>"}
+//   {"type":"message","message_id":1,"posted_by":1,"message_text":"...","time_posted_epoch":1669947792}
+// Export streams accounts then messages in keyset-ordered chunks; import reads the body
+// record by record and inserts chunks of chunkSize rows per transaction, so both run in constant memory.
+//
+// Import writes a progress line after each committed chunk. Every line carries the last committed
+// account_id and message_id; after a failure the same file can be re-sent with after_account_id and
+// after_message_id set to those, and everything up to them is skipped (and counted as skipped).
+// That only works if ids ascend within each type, as export writes them, so a record whose id is not
+// above the previous one of its type stops the import with an "error" line.
+public class NdjsonTransfer {
+    private static final Logger LOG = LoggerFactory.getLogger(NdjsonTransfer.class);
+
+    private final AccountService accountService;
+    private final MessageService messageService;
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+
+    public NdjsonTransfer(AccountService accountService, MessageService messageService, ObjectMapper mapper, int chunkSize) {
+        this.accountService = accountService;
+        this.messageService = messageService;
+        this.mapper = mapper;
+        this.chunkSize = chunkSize;
+    }
+
+    // The generator is closed (and its buffer flushed) only on success; after a failure the caller
+    // must abort the response rather than end it, or a partial export reads as a complete one.
+    public void export(OutputStream out, boolean accounts, boolean messages) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        if (accounts) {
+            accountService.streamAllAccounts(account -> write(generator, account));
+        }
+        if (messages) {
+            messageService.streamAllMessages(message -> write(generator, message));
+        }
+        generator.close();
+    }
+
+    public void importFrom(InputStream in, OutputStream out, int afterAccountId, int afterMessageId) throws IOException {
+        Progress progress = new Progress(afterAccountId, afterMessageId);
+        // highest id read so far per type, committed or not
+        int readAccountId = afterAccountId;
+        int readMessageId = afterMessageId;
+        List<Account> accounts = new ArrayList<>(chunkSize);
+        List<Message> messages = new ArrayList<>(chunkSize);
+
+        try (JsonGenerator report = mapper.getFactory().createGenerator(out)) {
+            report.setRootValueSeparator(null);
+            try (MappingIterator<JsonNode> records = mapper.readerFor(JsonNode.class).readValues(in)) {
+                while (records.hasNextValue()) {
+                    JsonNode record = records.nextValue();
+                    String type = record.path("type").asText();
+                    if (type.equals("account")) {
+                        int id = record.path("account_id").asInt();
+                        if (id <= afterAccountId) {
+                            progress.skipped++;
+                            continue;
+                        }
+                        if (id <= readAccountId) {
+                            outOfOrder("account_id " + id + " after " + readAccountId, accounts, messages, progress, report);
+                            return;
+                        }
+                        readAccountId = id;
+                        // accounts must land before the messages that reference them
+                        if (!messages.isEmpty() && !flushMessages(messages, progress, report)) return;
+                        accounts.add(new Account(id, record.path("username").asText(null), record.path("password").asText(null)));
+                        if (accounts.size() == chunkSize && !flushAccounts(accounts, progress, report)) return;
+                    } else if (type.equals("message")) {
+                        int id = record.path("message_id").asInt();
+                        if (id <= afterMessageId) {
+                            progress.skipped++;
+                            continue;
+                        }
+                        if (id <= readMessageId) {
+                            outOfOrder("message_id " + id + " after " + readMessageId, accounts, messages, progress, report);
+                            return;
+                        }
+                        readMessageId = id;
+                        if (!accounts.isEmpty() && !flushAccounts(accounts, progress, report)) return;
+                        messages.add(new Message(id, record.path("posted_by").asInt(),
+                                record.path("message_text").asText(null), record.path("time_posted_epoch").asLong()));
+                        if (messages.size() == chunkSize && !flushMessages(messages, progress, report)) return;
+                    } else {
+                        progress.skipped++;
+                    }
+                }
+                if (!flushAccounts(accounts, progress, report) || !flushMessages(messages, progress, report)) return;
+                writeProgress(report, "done", progress, null);
+            } catch (IOException | RuntimeException e) {
+                // a malformed line, or the client went away: report where to restart from
+                writeProgress(report, "error", progress, String.valueOf(e.getMessage()));
+            } finally {
+                // rows went in with explicit ids; make sure new rows get ids above them
+                if (progress.accounts > 0) accountService.resyncIds();
+                if (progress.messages > 0) messageService.resyncIds();
+                LOG.info("Import finished: {} accounts, {} messages, {} skipped in {} ms",
+                        progress.accounts, progress.messages, progress.skipped, progress.elapsedMillis());
+            }
+        }
+    }
+
+    // Commits what was read before the offending record, so the reported cursor is as far as it can be.
+    private void outOfOrder(String ids, List<Account> accounts, List<Message> messages, Progress progress, JsonGenerator report) throws IOException {
+        if (flushAccounts(accounts, progress, report) && flushMessages(messages, progress, report)) {
+            writeProgress(report, "error", progress, "ids must ascend within each type: " + ids);
+        }
+    }
+
+    private boolean flushAccounts(List<Account> chunk, Progress progress, JsonGenerator report) throws IOException {
+        if (chunk.isEmpty()) return true;
+        int imported = accountService.importAccounts(chunk);
+        if (imported < 0) {
+            writeProgress(report, "error", progress, "account chunk starting at account_id " + chunk.get(0).getAccount_id() + " failed");
+            return false;
+        }
+        progress.accounts += imported;
+        progress.skipped += chunk.size() - imported;
+        progress.lastAccountId = chunk.get(chunk.size() - 1).getAccount_id();
+        chunk.clear();
+        writeProgress(report, "progress", progress, null);
+        return true;
+    }
+
+    private boolean flushMessages(List<Message> chunk, Progress progress, JsonGenerator report) throws IOException {
+        if (chunk.isEmpty()) return true;
+        int imported = messageService.importMessages(chunk);
+        if (imported < 0) {
+            writeProgress(report, "error", progress, "message chunk starting at message_id " + chunk.get(0).getMessage_id() + " failed");
+            return false;
+        }
+        progress.messages += imported;
+        progress.skipped += chunk.size() - imported;
+        progress.lastMessageId = chunk.get(chunk.size() - 1).getMessage_id();
+        chunk.clear();
+        writeProgress(report, "progress", progress, null);
+        return true;
+    }
+
+    private void writeProgress(JsonGenerator report, String type, Progress progress, String error) throws IOException {
+        long millis = progress.elapsedMillis();
+        report.writeStartObject();
+        report.writeStringField("type", type);
+        report.writeNumberField("accounts", progress.accounts);
+        report.writeNumberField("messages", progress.messages);
+        report.writeNumberField("skipped", progress.skipped);
+        report.writeNumberField("last_account_id", progress.lastAccountId);
+        report.writeNumberField("last_message_id", progress.lastMessageId);
+        report.writeNumberField("elapsed_ms", millis);
+        report.writeNumberField("rows_per_second", millis == 0 ? 0 : (progress.accounts + progress.messages) * 1000 / millis);
+        if (error != null) report.writeStringField("error", error);
+        report.writeEndObject();
+        report.writeRaw('\n');
+        report.flush();
+    }
+
+    private static void write(JsonGenerator generator, Account account) {
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "account");
+            generator.writeNumberField("account_id", account.getAccount_id());
+            generator.writeStringField("username", account.getUsername());
+            generator.writeStringField("password", account.getPassword());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(JsonGenerator generator, Message message) {
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message");
+            generator.writeNumberField("message_id", message.getMessage_id());
+            generator.writeNumberField("posted_by", message.getPosted_by());
+            generator.writeStringField("message_text", message.getMessage_text());
+            generator.writeNumberField("time_posted_epoch", message.getTime_posted_epoch());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Progress {
+        final long start = System.nanoTime();
+        long accounts;
+        long messages;
+        long skipped;
+        int lastAccountId;
+        int lastMessageId;
+
+        Progress(int afterAccountId, int afterMessageId) {
+            this.lastAccountId = afterAccountId;
+            this.lastMessageId = afterMessageId;
+        }
+
+        long elapsedMillis() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+}
@@ -1,33 +1,345 @@
 package org.paul.restlearning.controller;
 
 import org.paul.restlearning.dao.*;
+import org.paul.restlearning.metrics.LatencyHistogram;
+import org.paul.restlearning.metrics.MetricsRegistry;
+import org.paul.restlearning.metrics.PoolMetrics;
+import org.paul.restlearning.metrics.TimedJsonMapper;
+import org.paul.restlearning.metrics.TimedProxy;
 import org.paul.restlearning.model.Account;
 import org.paul.restlearning.model.Message;
+import org.paul.restlearning.service.AccountExistenceIndex;
 import org.paul.restlearning.service.AccountService;
+import org.paul.restlearning.service.CredentialService;
 import org.paul.restlearning.service.MessageService;
+import org.paul.restlearning.service.PasswordHasher;
+import org.paul.restlearning.service.ResourceVersions;
+import org.paul.restlearning.service.SearchIndex;
+import org.paul.restlearning.service.TimelineStore;
+import org.paul.restlearning.service.WriteBehindIngestor;
+import org.paul.restlearning.util.AppConfig;
+import org.paul.restlearning.util.BatchingInvalidationBus;
+import org.paul.restlearning.util.BufferPool;
+import org.paul.restlearning.util.ConnectionUtil;
+import org.paul.restlearning.util.DatabaseUnavailableException;
+import org.paul.restlearning.util.InvalidationBus;
+import org.paul.restlearning.util.JdbcExecutor;
+import org.paul.restlearning.util.LoopbackInvalidationBus;
+import org.paul.restlearning.util.PooledSource;
+import org.paul.restlearning.util.PostgresInvalidationBus;
+import org.paul.restlearning.util.RateLimiter;
+import org.paul.restlearning.util.ReplicaRouter;
+import org.paul.restlearning.util.TooManyRequestsException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.javalin.Javalin;
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.UnauthorizedResponse;
+import io.javalin.http.sse.SseHandler;
+import io.javalin.json.JavalinJackson;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.ServerConnector;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class SocialMediaController {
 
+    // Page size used when a client asks for a page (after_id) without giving a limit.
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int SEARCH_PAGE_SIZE = 20;
+    private static final String NDJSON = "application/x-ndjson";
+
+    // Single-message lookups are cached; sized for the hot set of posts rather than the whole table.
+    private static final int MESSAGE_CACHE_SIZE = AppConfig.getInt("cache.messages.max-entries", 10_000);
+    private static final long MESSAGE_CACHE_TTL_SECONDS = AppConfig.getLong("cache.messages.ttl-seconds", 300);
+
+    // Per-account timelines: how many recent messages are kept per account, and for how many accounts.
+    private static final int TIMELINE_WINDOW = AppConfig.getInt("timeline.window", 50);
+    private static final int TIMELINE_MAX_ACCOUNTS = AppConfig.getInt("timeline.max-accounts", 10_000);
+    private static final long TIMELINE_TTL_SECONDS = AppConfig.getLong("timeline.ttl-seconds", 600);
+
+    // Used to stream large lists straight to the response instead of building them in memory first.
+    // Not flushing after each message lets the generator write full buffers, which is also what lets
+    // the compressor see a first write big enough to compress.
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+
+    // Password hashing: PBKDF2 cost, the dedicated hashing pool and the short-lived login cache.
+    private static final int AUTH_HASH_ITERATIONS = AppConfig.getInt("auth.hash-iterations", 120_000);
+    private static final int AUTH_HASH_THREADS = AppConfig.getInt("auth.hash-threads", Runtime.getRuntime().availableProcessors());
+    private static final int AUTH_HASH_QUEUE = AppConfig.getInt("auth.hash-queue", 256);
+    private static final int AUTH_CACHE_SIZE = AppConfig.getInt("auth.login-cache.max-entries", 10_000);
+    private static final long AUTH_CACHE_TTL_SECONDS = AppConfig.getLong("auth.login-cache.ttl-seconds", 60);
+
+    // Optional write-behind for POST /messages: inserts are queued and group-committed by one writer thread.
+    private static final boolean INGEST_WRITE_BEHIND = AppConfig.getBoolean("ingest.write-behind", false);
+    private static final int INGEST_QUEUE_CAPACITY = AppConfig.getInt("ingest.queue-capacity", 8192);
+    private static final int INGEST_MAX_BATCH = AppConfig.getInt("ingest.max-batch", 256);
+    private static final long INGEST_LINGER_MICROS = AppConfig.getLong("ingest.linger-micros", 2000);
+
+    // Encoded JSON of recently served messages, reused across responses.
+    private static final int JSON_CACHE_SIZE = AppConfig.getInt("cache.json.max-entries", 10_000);
+    private static final long JSON_CACHE_TTL_SECONDS = AppConfig.getLong("cache.json.ttl-seconds", 300);
+
+    // Token buckets per client IP, per account (posted_by or login username) and for the whole server.
+    // A global rate of 0 turns the server-wide limit off.
+    private static final boolean RATE_LIMIT_ENABLED = AppConfig.getBoolean("rate-limit.enabled", true);
+    private static final double RATE_LIMIT_IP_RATE = Double.parseDouble(AppConfig.get("rate-limit.ip.per-second", "500"));
+    private static final int RATE_LIMIT_IP_BURST = AppConfig.getInt("rate-limit.ip.burst", 1000);
+    private static final double RATE_LIMIT_ACCOUNT_RATE = Double.parseDouble(AppConfig.get("rate-limit.account.per-second", "20"));
+    private static final int RATE_LIMIT_ACCOUNT_BURST = AppConfig.getInt("rate-limit.account.burst", 50);
+    private static final double RATE_LIMIT_GLOBAL_RATE = Double.parseDouble(AppConfig.get("rate-limit.global.per-second", "0"));
+    private static final int RATE_LIMIT_GLOBAL_BURST = AppConfig.getInt("rate-limit.global.burst", 5000);
+    private static final long RATE_LIMIT_SWEEP_SECONDS = AppConfig.getLong("rate-limit.idle-sweep-seconds", 30);
+
+    // Threads that run JDBC calls for async handlers; by default one per pooled connection.
+    private static final int JDBC_THREADS = AppConfig.getInt("jdbc.executor.threads", AppConfig.getInt("db.pool.max-total", 10));
+    private static final int JDBC_QUEUE = AppConfig.getInt("jdbc.executor.queue-capacity", 1024);
+
+    // Rows per transaction for POST /import.
+    private static final int IMPORT_CHUNK_SIZE = AppConfig.getInt("import.chunk-size", 1000);
+
+    // GET /export and POST /import move every account's credentials and choose ids, so they are only
+    // served when admin.token is set, to callers sending it as "Authorization: Bearer <token>".
+    private static final String ADMIN_TOKEN = AppConfig.get("admin.token", "");
+
+    // Slots in the message and account version tables behind ETags; more slots, fewer spurious 200s.
+    private static final int VERSION_SLOTS = AppConfig.getInt("http.etag.slots", 65_536);
+
+    // GET /messages/stream: frames queued per subscriber before it is dropped as too slow, frames kept
+    // for Last-Event-ID resumes, the most open streams, and the keep-alive interval for idle ones.
+    private static final int STREAM_BUFFER_SIZE = AppConfig.getInt("stream.buffer-size", 2048);
+    private static final int STREAM_REPLAY_SIZE = AppConfig.getInt("stream.replay-size", 4096);
+    private static final int STREAM_MAX_SUBSCRIBERS = AppConfig.getInt("stream.max-subscribers", 20_000);
+    private static final long STREAM_HEARTBEAT_SECONDS = AppConfig.getLong("stream.heartbeat-seconds", 15);
+
+    // Cache coherence between nodes sharing a database: none, loopback (nodes in one JVM) or postgres
+    // (LISTEN/NOTIFY). Changes are batched for linger-ms before they are sent.
+    private static final String BUS_TYPE = AppConfig.get("cache.bus", "none");
+    private static final String BUS_CHANNEL = AppConfig.get("cache.bus.channel", "cache_invalidation");
+    private static final long BUS_LINGER_MILLIS = AppConfig.getLong("cache.bus.linger-ms", 20);
+    private static final int BUS_QUEUE = AppConfig.getInt("cache.bus.queue-capacity", 65_536);
+
+    // Where messages live: jdbc (the database) or memory (MemoryMessageDao, this node only; snapshot and
+    // write-ahead log under dir). A new memory store is filled from the database on first start.
+    private static final String MESSAGE_STORE = AppConfig.get("messages.store", "jdbc");
+    private static final String MESSAGE_STORE_DIR = AppConfig.get("messages.store.dir", "data/messages");
+    private static final boolean MESSAGE_STORE_SYNC = AppConfig.getBoolean("messages.store.sync-writes", false);
+    private static final long MESSAGE_STORE_SNAPSHOT_MB = AppConfig.getLong("messages.store.snapshot-wal-mb", 64);
+
+    // Incremental sync from the database holds back message_ids newer than this (see CommitHorizon).
+    private static final long SYNC_COMMIT_LAG_MILLIS = AppConfig.getLong("messages.sync.commit-lag-ms",
+            MessageDaoImpl.DEFAULT_SYNC_COMMIT_LAG_MILLIS);
+
+    // Response header carrying the token to continue an incremental sync from.
+    private static final String RESUME_TOKEN = "X-Resume-Token";
+
+    // Request attribute holding System.nanoTime() at the start of the request.
+    private static final String REQUEST_START = "metrics.requestStart";
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Map<String, LatencyHistogram> routeTimers = new ConcurrentHashMap<>();
+
+    private final CachingMessageDao messageCache;
+    private final TimelineStore timelines;
+    private final JdbcExecutor jdbc = new JdbcExecutor(JDBC_THREADS, JDBC_QUEUE);
+    private final WriteBehindIngestor ingestor;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final ResourceVersions versions = new ResourceVersions(VERSION_SLOTS);
+    private final NdjsonTransfer transfer;
+    private final BatchingInvalidationBus bus = createBus();
+    private final MemoryMessageDao memoryStore = createMemoryStore();
+    private final RateLimiter ipLimiter = new RateLimiter(RATE_LIMIT_IP_RATE, RATE_LIMIT_IP_BURST,
+            RATE_LIMIT_SWEEP_SECONDS, TimeUnit.SECONDS);
+    private final RateLimiter accountLimiter = new RateLimiter(RATE_LIMIT_ACCOUNT_RATE, RATE_LIMIT_ACCOUNT_BURST,
+            RATE_LIMIT_SWEEP_SECONDS, TimeUnit.SECONDS);
+    private final RateLimiter globalLimiter = RATE_LIMIT_GLOBAL_RATE > 0
+            ? new RateLimiter(RATE_LIMIT_GLOBAL_RATE, RATE_LIMIT_GLOBAL_BURST, RATE_LIMIT_SWEEP_SECONDS, TimeUnit.SECONDS)
+            : null;
+    private final MessageJsonCache jsonCache = new MessageJsonCache(JavalinJackson.Companion.defaultMapper(),
+            JSON_CACHE_SIZE, JSON_CACHE_TTL_SECONDS, TimeUnit.SECONDS, new BufferPool(64, 16 * 1024, 1024 * 1024),
+            metrics.timer("json_duration_seconds", MetricsRegistry.label("operation", "serialize")));
+    private final MessageStream stream = new MessageStream(JavalinJackson.Companion.defaultMapper(),
+            STREAM_BUFFER_SIZE, STREAM_REPLAY_SIZE, STREAM_MAX_SUBSCRIBERS, STREAM_HEARTBEAT_SECONDS, TimeUnit.SECONDS);
     private final AccountService accountService;
     private final MessageService messageService;
 
     public SocialMediaController() {
-        // DAO wiring
-        IAccountDao accountDao = new AccountDaoImpl();
-        IMessageDao messageDao = new MessageDaoImpl();
+        // DAO wiring; every DAO call is timed, and the message cache sits in front of the timing
+        // so dao_query_duration_seconds only counts real trips to the database.
+        IAccountDao accountDao = TimedProxy.wrap(IAccountDao.class, new AccountDaoImpl(),
+                metrics, "dao_query_duration_seconds", "IAccountDao");
+        this.messageCache = new CachingMessageDao(
+                TimedProxy.wrap(IMessageDao.class, memoryStore != null ? memoryStore : new MessageDaoImpl(SYNC_COMMIT_LAG_MILLIS),
+                        metrics, "dao_query_duration_seconds", "IMessageDao"),
+                MESSAGE_CACHE_SIZE, MESSAGE_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+        IMessageDao messageDao = messageCache;
 
         // Service wiring
-        this.accountService = new AccountService(accountDao);
-        this.messageService = new MessageService(messageDao, accountService);
+        CredentialService credentials = new CredentialService(new PasswordHasher(AUTH_HASH_ITERATIONS),
+                AUTH_HASH_THREADS, AUTH_HASH_QUEUE, AUTH_CACHE_SIZE, AUTH_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+        this.accountService = new AccountService(accountDao,
+                new AccountExistenceIndex(30, TimeUnit.SECONDS), credentials, jdbc);
+        this.timelines = new TimelineStore(messageDao, TIMELINE_WINDOW, TIMELINE_MAX_ACCOUNTS,
+                TIMELINE_TTL_SECONDS, TimeUnit.SECONDS);
+        this.ingestor = INGEST_WRITE_BEHIND
+                ? new WriteBehindIngestor(messageDao, INGEST_QUEUE_CAPACITY, INGEST_MAX_BATCH, INGEST_LINGER_MICROS, TimeUnit.MICROSECONDS)
+                : null;
+        if (ingestor != null) {
+            // messages still queued at exit have not been written; let the writer finish them first
+            Runtime.getRuntime().addShutdownHook(new Thread(ingestor::close, "message-write-behind-drain"));
+        }
+        this.messageService = new MessageService(messageDao, accountService, timelines, ingestor, jdbc);
+        messageService.addListener(searchIndex);
+        messageService.addListener(versions);
+        messageService.addListener(jsonCache);
+        messageService.addListener(stream);
+        this.transfer = new NdjsonTransfer(accountService, messageService, MAPPER, IMPORT_CHUNK_SIZE);
+
+        // Multi-node: tell peers what changed here, and refresh what we hold when they change something.
+        if (bus != null) {
+            messageService.publishTo(bus);
+            accountService.publishTo(bus);
+            bus.subscribe(new RemoteChanges());
+        }
+    }
+
+    private static BatchingInvalidationBus createBus() {
+        return switch (BUS_TYPE) {
+            case "none" -> null;
+            case "loopback" -> new LoopbackInvalidationBus(BUS_LINGER_MILLIS, TimeUnit.MILLISECONDS, BUS_QUEUE);
+            case "postgres" -> new PostgresInvalidationBus(ConnectionUtil::getConnection, ConnectionUtil::openUnpooledConnection,
+                    BUS_CHANNEL, BUS_LINGER_MILLIS, TimeUnit.MILLISECONDS, BUS_QUEUE);
+            default -> throw new IllegalArgumentException("Unknown cache.bus: " + BUS_TYPE);
+        };
+    }
+
+    // posted_by is checked against the accounts in the database, as the foreign key would.
+    private MemoryMessageDao createMemoryStore() {
+        if (MESSAGE_STORE.equals("memory") && bus != null) {
+            throw new IllegalArgumentException("messages.store=memory keeps messages on one node; cache.bus must be none");
+        }
+        return switch (MESSAGE_STORE) {
+            case "jdbc" -> null;
+            case "memory" -> new MemoryMessageDao(Path.of(MESSAGE_STORE_DIR), MESSAGE_STORE_SYNC,
+                    MESSAGE_STORE_SNAPSHOT_MB * 1024 * 1024, ids -> accountService.existingAccountIds(ids));
+            default -> throw new IllegalArgumentException("Unknown messages.store: " + MESSAGE_STORE);
+        };
+    }
+
+    // Copies the database's messages into a memory store that has nothing on disk yet.
+    private void fillMemoryStore() {
+        MessageDaoImpl database = new MessageDaoImpl();
+        List<Message> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        database.forEachMessage(message -> {
+            chunk.add(message);
+            if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                memoryStore.importMessages(chunk);
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()) memoryStore.importMessages(chunk);
+        memoryStore.resyncIdSequence();
+    }
+
+    // Changes made by other nodes. The DAO cache entries go first, so the services' re-reads
+    // reach the database; the services then update timelines, ETag versions, the JSON cache, the
+    // search index and live streams through the usual change listeners.
+    private final class RemoteChanges implements InvalidationBus.Listener {
+        @Override
+        public void onRemoteChanges(List<InvalidationBus.Event> events) {
+            for (InvalidationBus.Event event : events) {
+                if (event.getEntity() == InvalidationBus.Entity.MESSAGE) {
+                    messageCache.invalidate(event.getId());
+                }
+            }
+            messageService.applyRemoteChanges(events);
+            accountService.applyRemoteChanges(events);
+        }
+
+        // Some changes never arrived, so nothing derived from messages can be trusted.
+        @Override
+        public void onGap() {
+            messageCache.cache().invalidateAll();
+            jsonCache.cache().invalidateAll();
+            timelines.invalidateAll();
+            versions.bumpAll();
+            // the missed changes never reached the live streams either
+            stream.reset();
+            messageService.rebuildSearchIndex(searchIndex);
+        }
     }
 
 
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        accountService.warmUpExistenceIndex();
+        if (memoryStore != null && memoryStore.isNew()) fillMemoryStore();
+        messageService.rebuildSearchIndex(searchIndex);
+        if (bus != null) bus.start();
+        Javalin app = Javalin.create(config -> {
+            // Handlers block on JDBC; on virtual threads a slow database parks cheap threads instead of
+            // exhausting Jetty's platform pool. ConnectionUtil bounds how many reach the connection pool.
+            config.useVirtualThreads = AppConfig.getBoolean("server.virtual-threads", false);
+            config.jsonMapper(new TimedJsonMapper(new JavalinJackson(), metrics));
+            config.http.customCompression(compressionStrategy());
+
+            // One connector speaking HTTP/1.1 and cleartext HTTP/2 (prior knowledge or Upgrade: h2c), so
+            // multiplexing clients can pipeline many requests over one connection.
+            if (AppConfig.getBoolean("http.h2c", true)) {
+                config.jetty.addConnector((server, httpConfiguration) -> {
+                    ServerConnector connector = new ServerConnector(server,
+                            new HttpConnectionFactory(httpConfiguration),
+                            new HTTP2CServerConnectionFactory(httpConfiguration));
+                    connector.setHost(config.jetty.defaultHost);
+                    connector.setPort(config.jetty.defaultPort);
+                    return connector;
+                });
+            }
+        });
+
+        registerMetrics();
+        app.before(ctx -> ctx.attribute(REQUEST_START, System.nanoTime()));
+        app.after(this::recordRequest);
+        app.before(this::limitRate);
+        app.get("/metrics", this::getMetrics);
+
+        // Pool exhausted or database down: tell the client to retry rather than leaving it hanging.
+        app.exception(DatabaseUnavailableException.class, (e, ctx) -> {
+            ctx.status(503);
+            ctx.header("Retry-After", "1");
+        });
+        // A bounded work queue is full: shed the request and ask the client to back off.
+        app.exception(TooManyRequestsException.class, (e, ctx) -> {
+            ctx.status(429);
+            ctx.header("Retry-After", Integer.toString(e.getRetryAfterSeconds()));
+        });
 
         // Account endpoints
         app.post("/register", this::register);
@@ -35,95 +347,538 @@ public class SocialMediaController {
 
         // Message endpoints
         app.post("/messages", this::createMessage);
+        app.post("/messages/batch", this::createMessages);
         app.get("/messages", this::getAllMessages);
+        app.get("/messages/search", this::searchMessages);
+        app.get("/messages/stream", this::streamMessages);
         app.get("/messages/{message_id}", this::getMessageById);
         app.delete("/messages/{message_id}", this::deleteMessage);
         app.patch("/messages/{message_id}", this::updateMessageText);
 
+        // Bulk transfer as newline-delimited JSON, for administrators only
+        if (!ADMIN_TOKEN.isEmpty()) {
+            app.before("/export", this::requireAdmin);
+            app.before("/import", this::requireAdmin);
+            app.get("/export", this::exportData);
+            app.post("/import", this::importData);
+        }
+
         // Messages by user
         app.get("/accounts/{account_id}/messages", this::getMessagesByAccountId);
 
         return app;
     }
 
+    // Metrics
+    private void getMetrics(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(metrics.scrape());
+    }
+
+    // Runs before every route but /metrics: the server-wide limit, then the caller's IP.
+    // Posting also charges the poster's bucket once posted_by is known to exist, and login charges
+    // a bucket per (IP, username), so no client can use up another account's allowance.
+    private void limitRate(Context ctx) {
+        if (!RATE_LIMIT_ENABLED || ctx.path().equals("/metrics")) return;
+        if (globalLimiter != null) {
+            // one bucket for the whole server: a permit is a single CAS, and splitting it would cut the limit
+            // whenever only a few threads are busy
+            globalLimiter.acquireOrThrow("server", "server");
+        }
+        ipLimiter.acquireOrThrow(ctx.ip(), "ip");
+    }
+
+    // Compares in constant time, so response timing doesn't give the token away byte by byte.
+    private void requireAdmin(Context ctx) {
+        String authorization = ctx.header(Header.AUTHORIZATION);
+        String token = authorization != null && authorization.startsWith("Bearer ") ? authorization.substring(7) : "";
+        if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), ADMIN_TOKEN.getBytes(StandardCharsets.UTF_8))) {
+            throw new UnauthorizedResponse();
+        }
+    }
+
+    private void limitAccount(Object key) {
+        if (RATE_LIMIT_ENABLED) {
+            accountLimiter.acquireOrThrow(key, "account");
+        }
+    }
+
+    private void registerPoolMetrics(PoolMetrics pool) {
+        String poolLabel = MetricsRegistry.label("pool", pool.name());
+        metrics.gauge("db_pool_active_connections", poolLabel, pool::active);
+        metrics.gauge("db_pool_idle_connections", poolLabel, pool::idle);
+        metrics.gauge("db_pool_waiting_threads", poolLabel, pool::waiters);
+        metrics.gauge("db_pool_max_connections", poolLabel, pool::maxTotal);
+        metrics.counter("db_pool_timeouts_total", poolLabel, pool::timeouts);
+        metrics.register("db_pool_wait_duration_seconds", poolLabel, pool.waitTime());
+        metrics.register("db_pool_checkout_duration_seconds", poolLabel, pool.checkoutDuration());
+    }
+
+    private void recordRequest(Context ctx) {
+        Long start = ctx.attribute(REQUEST_START);
+        if (start == null) return;
+        long elapsed = System.nanoTime() - start;
+
+        String route = ctx.status().getCode() == 404 ? "unmatched" : ctx.endpointHandlerPath();
+        // a stream's duration is how long the client stayed connected, not latency
+        if (route.equals("/messages/stream")) return;
+        String method = ctx.method().name();
+        routeTimers.computeIfAbsent(method + ' ' + route, key -> metrics.timer("http_request_duration_seconds",
+                MetricsRegistry.join(MetricsRegistry.label("method", method), MetricsRegistry.label("route", route))))
+                .record(elapsed);
+
+        int status = ctx.status().getCode();
+        if (status >= 400) {
+            metrics.counter("http_request_errors_total", MetricsRegistry.join(
+                    MetricsRegistry.label("method", method),
+                    MetricsRegistry.label("route", route),
+                    MetricsRegistry.label("status", Integer.toString(status)))).increment();
+        }
+    }
+
+    // Large lists compress very well; tiny bodies aren't worth the CPU, hence the minimum size.
+    // Brotli is offered only when brotli4j (and its native library) is on the classpath.
+    private static CompressionStrategy compressionStrategy() {
+        if (!AppConfig.getBoolean("http.compression.enabled", true)) {
+            return CompressionStrategy.NONE;
+        }
+        Gzip gzip = new Gzip(AppConfig.getInt("http.compression.gzip-level", 1));
+        Brotli brotli = null;
+        if (AppConfig.getBoolean("http.compression.brotli", true) && brotliAvailable()) {
+            brotli = new Brotli(AppConfig.getInt("http.compression.brotli-level", 4));
+        }
+        CompressionStrategy strategy = new CompressionStrategy(brotli, gzip);
+        strategy.setDefaultMinSizeForCompression(AppConfig.getInt("http.compression.min-size", 1024));
+        return strategy;
+    }
+
+    private static boolean brotliAvailable() {
+        try {
+            Class.forName("com.aayushatharva.brotli4j.Brotli4jLoader");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void registerMetrics() {
+        metrics.help("http_request_duration_seconds", "Request latency by route.");
+        metrics.help("http_request_errors_total", "Responses with a 4xx or 5xx status by route.");
+        metrics.help("dao_query_duration_seconds", "Time spent in each DAO method.");
+        metrics.help("json_duration_seconds", "Time spent encoding and decoding JSON bodies.");
+
+        registerPoolMetrics(ConnectionUtil.poolMetrics());
+        ReplicaRouter replicas = ConnectionUtil.replicas();
+        for (PooledSource replica : replicas.replicas()) {
+            registerPoolMetrics(replica.metrics());
+            metrics.gauge("db_replica_healthy", MetricsRegistry.label("pool", replica.name()), () -> replica.isHealthy() ? 1 : 0);
+        }
+        if (!replicas.replicas().isEmpty()) {
+            metrics.counter("db_reads_total", MetricsRegistry.label("route", "replica"), replicas::replicaReads);
+            metrics.counter("db_reads_total", MetricsRegistry.label("route", "primary_recent_write"), replicas::pinnedReads);
+            metrics.counter("db_reads_total", MetricsRegistry.label("route", "primary_fallback"), replicas::fallbackReads);
+        }
+
+        String cacheLabel = MetricsRegistry.label("cache", "messages");
+        metrics.counter("cache_hits_total", cacheLabel, () -> messageCache.cache().hits());
+        metrics.counter("cache_misses_total", cacheLabel, () -> messageCache.cache().misses());
+        metrics.counter("cache_evictions_total", cacheLabel, () -> messageCache.cache().evictions());
+        metrics.counter("cache_expirations_total", cacheLabel, () -> messageCache.cache().expirations());
+        metrics.gauge("cache_entries", cacheLabel, () -> messageCache.cache().size());
+
+        String jsonCacheLabel = MetricsRegistry.label("cache", "message_json");
+        metrics.counter("cache_hits_total", jsonCacheLabel, () -> jsonCache.cache().hits());
+        metrics.counter("cache_misses_total", jsonCacheLabel, () -> jsonCache.cache().misses());
+        metrics.counter("cache_evictions_total", jsonCacheLabel, () -> jsonCache.cache().evictions());
+        metrics.counter("cache_expirations_total", jsonCacheLabel, () -> jsonCache.cache().expirations());
+        metrics.gauge("cache_entries", jsonCacheLabel, () -> jsonCache.cache().size());
+
+        metrics.counter("timeline_reads_total", MetricsRegistry.label("source", "memory"), timelines::memoryReads);
+        metrics.counter("timeline_reads_total", MetricsRegistry.label("source", "database"), timelines::databaseReads);
+        metrics.gauge("timeline_accounts", "", timelines::accounts);
+
+        CredentialService credentials = accountService.credentials();
+        metrics.gauge("auth_hash_queue_depth", "", credentials::queued);
+        metrics.gauge("auth_hash_active_threads", "", credentials::active);
+        metrics.counter("auth_hash_rejected_total", "", credentials::rejected);
+        metrics.gauge("jdbc_executor_queue_depth", "", jdbc::queued);
+        metrics.gauge("jdbc_executor_active_threads", "", jdbc::active);
+        metrics.counter("jdbc_executor_rejected_total", "", jdbc::rejected);
+        String loginCacheLabel = MetricsRegistry.label("cache", "logins");
+        metrics.counter("cache_hits_total", loginCacheLabel, () -> credentials.loginCache().hits());
+        metrics.counter("cache_misses_total", loginCacheLabel, () -> credentials.loginCache().misses());
+        metrics.counter("cache_evictions_total", loginCacheLabel, () -> credentials.loginCache().evictions());
+        metrics.counter("cache_expirations_total", loginCacheLabel, () -> credentials.loginCache().expirations());
+        metrics.gauge("cache_entries", loginCacheLabel, () -> credentials.loginCache().size());
+
+        if (ingestor != null) {
+            metrics.gauge("ingest_queue_depth", "", ingestor::queued);
+            metrics.counter("ingest_batches_total", "", ingestor::batches);
+            metrics.counter("ingest_messages_total", "", ingestor::messages);
+            metrics.counter("ingest_rejected_total", "", ingestor::rejected);
+        }
+
+        metrics.gauge("search_index_messages", "", searchIndex::documents);
+        metrics.gauge("search_index_terms", "", searchIndex::terms);
+        metrics.gauge("search_index_memory_bytes", "", searchIndex::memoryBytes);
+        metrics.gauge("search_index_bytes_per_message", "", () -> {
+            int messages = searchIndex.documents();
+            return messages == 0 ? 0 : searchIndex.memoryBytes() / messages;
+        });
+
+        metrics.counter("rate_limited_total", MetricsRegistry.label("scope", "ip"), ipLimiter::rejected);
+        metrics.counter("rate_limited_total", MetricsRegistry.label("scope", "account"), accountLimiter::rejected);
+        metrics.gauge("rate_limiter_keys", MetricsRegistry.label("scope", "ip"), ipLimiter::keys);
+        metrics.gauge("rate_limiter_keys", MetricsRegistry.label("scope", "account"), accountLimiter::keys);
+        if (globalLimiter != null) {
+            metrics.counter("rate_limited_total", MetricsRegistry.label("scope", "server"), globalLimiter::rejected);
+        }
+
+        metrics.gauge("stream_subscribers", "", stream::subscribers);
+        metrics.counter("stream_events_total", "", stream::events);
+        metrics.counter("stream_dropped_subscribers_total", "", stream::dropped);
+        metrics.counter("stream_rejected_total", "", stream::rejected);
+
+        if (bus != null) {
+            metrics.counter("invalidation_events_total", MetricsRegistry.label("direction", "published"), bus::published);
+            metrics.counter("invalidation_events_total", MetricsRegistry.label("direction", "sent"), bus::sent);
+            metrics.counter("invalidation_events_total", MetricsRegistry.label("direction", "received"), bus::received);
+            metrics.counter("invalidation_batches_total", "", bus::batches);
+            metrics.counter("invalidation_gaps_total", "", bus::gaps);
+            metrics.gauge("invalidation_queue_depth", "", bus::queued);
+            metrics.gauge("invalidation_retry_depth", "", bus::retrying);
+        }
+
+        if (memoryStore != null) {
+            metrics.gauge("message_store_messages", "", memoryStore::size);
+            metrics.gauge("message_store_memory_bytes", "", memoryStore::memoryBytes);
+            metrics.gauge("message_store_wal_bytes", "", memoryStore::walBytes);
+        }
+
+        metrics.gauge("account_index_ids", "", () -> accountService.existenceIndex().size());
+        metrics.gauge("account_index_memory_bytes", "", () -> accountService.existenceIndex().memoryBytes());
+    }
+
     // Account Handlers
+    // Registration and login wait on password hashing; the request thread is released meanwhile.
     private void register(Context ctx) {
         Account incoming = ctx.bodyAsClass(Account.class);
-        Account created = accountService.register(incoming);
-
-        if (created == null) {
-            ctx.status(400);
-        } else {
-            ctx.json(created);
-        }
+        ctx.future(() -> accountService.registerAsync(incoming).thenAccept(created -> {
+            if (created == null) {
+                ctx.status(400);
+            } else {
+                ctx.json(created);
+            }
+        }));
     }
 
     private void login(Context ctx) {
         Account credentials = ctx.bodyAsClass(Account.class);
-        Account account = accountService.login(credentials);
-
-        if (account == null) {
-            ctx.status(401);
-        } else {
-            ctx.json(account);
-        }
+        if (credentials.getUsername() != null) limitAccount(List.of(ctx.ip(), credentials.getUsername()));
+        ctx.future(() -> accountService.loginAsync(credentials).thenAccept(account -> {
+            if (account == null) {
+                ctx.status(401);
+            } else {
+                ctx.json(account);
+            }
+        }));
     }
 
     // Message Handlers
+    // Handlers that query hand the work to the JDBC executor with ctx.future, so the request thread
+    // goes back to Jetty while the query runs. Only the streaming reads hold their thread throughout.
+    // With write-behind on, the response waits for the batch holding this message to commit.
     private void createMessage(Context ctx) {
         Message incoming = ctx.bodyAsClass(Message.class);
-        Message created = messageService.createMessage(incoming);
+        ctx.future(() -> accountService.accountExistsAsync(incoming.getPosted_by()).thenCompose(exists -> {
+            if (exists) limitAccount(incoming.getPosted_by());
+            return messageService.createMessageAsync(incoming);
+        }).thenAccept(created -> {
+            if (created == null) {
+                ctx.status(400);
+            } else {
+                ctx.json(created);
+            }
+        }));
+    }
 
-        if (created == null) {
-            ctx.status(400);
-        } else {
-            ctx.json(created);
+    // Responds with one entry per submitted message: the created message, or null where it was rejected.
+    private void createMessages(Context ctx) {
+        Message[] incoming = ctx.bodyAsClass(Message[].class);
+        // one permit per existing account per batch, not per message
+        Set<Integer> posters = new HashSet<>();
+        for (Message message : incoming) {
+            if (message != null) posters.add(message.getPosted_by());
         }
+        ctx.future(() -> accountService.existingAccountIdsAsync(posters).thenCompose(existing -> {
+            existing.forEach(this::limitAccount);
+            return messageService.createMessagesAsync(Arrays.asList(incoming));
+        }).thenAccept(results -> {
+            if (results == null) {
+                ctx.status(400);
+            } else {
+                ctx.json(results);
+            }
+        }));
     }
 
+    // Without paging parameters the whole table is streamed row by row from the database;
+    // with after_id/limit a keyset page is returned along with a Link header to the next one.
     private void getAllMessages(Context ctx) {
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages); // always 200
+        if (isSync(ctx)) {
+            syncMessages(ctx, 0, "/messages");
+            return;
+        }
+        if (ctx.queryParam("after_id") != null || ctx.queryParam("limit") != null) {
+            int afterId = ctx.queryParamAsClass("after_id", Integer.class).getOrDefault(0);
+            int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_PAGE_SIZE);
+            ctx.future(() -> messageService.getMessagesPageAsync(afterId, limit).thenAccept(page -> {
+                if (!page.isEmpty() && page.size() >= Math.min(limit, MessageService.MAX_PAGE_SIZE)) {
+                    int nextAfterId = page.get(page.size() - 1).getMessage_id();
+                    ctx.header("Link", "</messages?after_id=" + nextAfterId + "&limit=" + page.size() + ">; rel=\"next\"");
+                }
+                json(ctx, page);
+            }));
+            return;
+        }
+
+        ctx.contentType(ContentType.APPLICATION_JSON); // always 200
+        try {
+            // Closed only on success: closing after a failure would write the closing ']' and pass a
+            // truncated list off as the whole table.
+            JsonGenerator generator = MAPPER.getFactory().createGenerator(ctx.outputStream());
+            generator.writeStartArray();
+            messageService.streamAllMessages(message -> writeMessage(generator, message));
+            generator.writeEndArray();
+            generator.close();
+        } catch (IOException e) {
+            throw abortStream(ctx, new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            throw abortStream(ctx, e);
+        }
+    }
+
+    // Cuts the connection instead of ending the body, so a stream that fails halfway reaches the client
+    // as an incomplete response rather than a short one that looks complete. This holds even before the
+    // status line is out: by then the compressor may already hold part of the body, so there is no
+    // clean point to switch to an error response.
+    // @return e, for the caller to rethrow
+    private static RuntimeException abortStream(Context ctx, RuntimeException e) {
+        Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+        return e;
+    }
+
+    private void writeMessage(JsonGenerator generator, Message message) {
+        try {
+            generator.writeObject(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Ranked full-text search; offset/limit page through the ranking, with a Link header to the next page.
+    private void searchMessages(Context ctx) {
+        String query = ctx.queryParam("q");
+        if (query == null || query.isBlank()) {
+            ctx.status(400);
+            return;
+        }
+        int offset = Math.max(0, ctx.queryParamAsClass("offset", Integer.class).getOrDefault(0));
+        int limit = Math.max(1, Math.min(ctx.queryParamAsClass("limit", Integer.class).getOrDefault(SEARCH_PAGE_SIZE),
+                MessageService.MAX_PAGE_SIZE));
+        SearchIndex.Hits hits = searchIndex.search(query, offset, limit);
+
+        if (offset + limit < hits.total()) {
+            ctx.header("Link", "</messages/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
+                    + "&offset=" + (offset + limit) + "&limit=" + limit + ">; rel=\"next\"");
+        }
+        ctx.header("X-Total-Count", Integer.toString(hits.total()));
+        ctx.future(() -> messageService.getMessagesByIdsAsync(hits.ids()).thenAccept(messages -> json(ctx, messages)));
     }
 
+    // Live changes as Server-Sent Events (Accept: text/event-stream); ?account_id= follows one author.
+    // EventSource resends the last id it saw as Last-Event-ID when it reconnects; last_event_id does
+    // the same for a first connection, which can't set headers.
+    private void streamMessages(Context ctx) {
+        int accountId = ctx.queryParamAsClass("account_id", Integer.class).getOrDefault(0);
+        String header = ctx.header("Last-Event-ID");
+        String lastEventId = header != null ? header : ctx.queryParam("last_event_id");
+        new SseHandler(client -> stream.subscribe(client, accountId, lastEventId)).handle(ctx);
+    }
+
+    // Conditional GETs: a matching If-None-Match is answered 304 from the version table alone.
+    // The stamp is read before the message so a concurrent change can only make the tag stale, never the body.
     private void getMessageById(Context ctx) {
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
-        Message message = messageService.getMessageById(messageId);
+        long stamp = versions.messageStamp(messageId);
+        if (notModified(ctx, ResourceVersions.etag("m", messageId, stamp), stamp)) return;
 
-        if (message != null) {
-            ctx.json(message);
-        }
+        ctx.future(() -> messageService.getMessageByIdAsync(messageId).thenAccept(message -> {
+            if (message != null) {
+                json(ctx, message);
+            } else {
+                ctx.removeHeader(Header.ETAG);
+                ctx.removeHeader(Header.LAST_MODIFIED);
+            }
+        }));
     }
 
     private void deleteMessage(Context ctx) {
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
-        Message deleted = messageService.deleteMessage(messageId);
-
-        if (deleted != null) {
-            ctx.json(deleted);
-        }
+        ctx.future(() -> messageService.deleteMessageAsync(messageId).thenAccept(deleted -> {
+            if (deleted != null) {
+                ctx.json(deleted);
+            }
+        }));
     }
 
     private void updateMessageText(Context ctx) {
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
         Message body = ctx.bodyAsClass(Message.class);
 
-        Message updated = messageService.updateMessageText(
+        ctx.future(() -> messageService.updateMessageTextAsync(
                 messageId,
                 body.getMessage_text()
-        );
+        ).thenAccept(updated -> {
+            if (updated == null) {
+                ctx.status(400);
+            } else {
+                json(ctx, updated);
+            }
+        }));
+    }
 
-        if (updated == null) {
-            ctx.status(400);
+    // With a limit (and optionally a before_epoch/before_id cursor) this returns a newest-first page,
+    // usually straight from the in-memory timeline, plus a Link header to the next older page.
+    private void getMessagesByAccountId(Context ctx) {
+        int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+        long stamp = versions.accountStamp(accountId);
+        if (notModified(ctx, ResourceVersions.etag("a", accountId, stamp), stamp)) return;
+
+        if (isSync(ctx)) {
+            syncMessages(ctx, accountId, "/accounts/" + accountId + "/messages");
+            return;
+        }
+        if (ctx.queryParam("limit") != null || ctx.queryParam("before_epoch") != null) {
+            int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_PAGE_SIZE);
+            long beforeEpoch = ctx.queryParamAsClass("before_epoch", Long.class).getOrDefault(Long.MAX_VALUE);
+            int beforeId = ctx.queryParamAsClass("before_id", Integer.class).getOrDefault(Integer.MAX_VALUE);
+            ctx.future(() -> messageService.getMessagesByAccountIdPageAsync(accountId, beforeEpoch, beforeId, limit).thenAccept(page -> {
+                if (!page.isEmpty() && page.size() >= Math.min(limit, MessageService.MAX_PAGE_SIZE)) {
+                    Message last = page.get(page.size() - 1);
+                    ctx.header("Link", "</accounts/" + accountId + "/messages?before_epoch=" + last.getTime_posted_epoch()
+                            + "&before_id=" + last.getMessage_id() + "&limit=" + page.size() + ">; rel=\"next\"");
+                }
+                json(ctx, page);
+            }));
+            return;
+        }
+
+        ctx.future(() -> messageService.getMessagesByAccountIdAsync(accountId).thenAccept(messages -> json(ctx, messages)));
+    }
+
+    private static boolean isSync(Context ctx) {
+        return ctx.queryParam("since_id") != null || ctx.queryParam("since") != null
+                || ctx.queryParam("until") != null || ctx.queryParam("resume") != null;
+    }
+
+    // Incremental sync: ?since_id= (messages created after that id), ?since=/?until= (time_posted_epoch
+    // range, until exclusive), or ?resume=<token>. Results come oldest first. Every response carries an
+    // X-Resume-Token; asking again with it returns only what was created in between.
+    private void syncMessages(Context ctx, int accountId, String path) {
+        SyncToken token;
+        String resume = ctx.queryParam("resume");
+        if (resume != null) {
+            token = SyncToken.decode(resume);
+            if (token == null || token.accountId() != accountId) {
+                ctx.status(400);
+                return;
+            }
         } else {
-            ctx.json(updated);
+            token = new SyncToken(accountId,
+                    ctx.queryParamAsClass("since_id", Integer.class).getOrDefault(0),
+                    ctx.queryParamAsClass("since", Long.class).getOrDefault(Long.MIN_VALUE),
+                    ctx.queryParamAsClass("until", Long.class).getOrDefault(Long.MAX_VALUE));
+        }
+        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(DEFAULT_PAGE_SIZE);
+
+        ctx.future(() -> messageService.getMessagesSinceAsync(token.accountId(), token.sinceMessageId(),
+                token.sinceEpoch(), token.untilEpoch(), limit).thenAccept(page -> {
+            SyncToken next = page.isEmpty() ? token : token.after(page.get(page.size() - 1).getMessage_id());
+            String encoded = next.encode();
+            ctx.header(RESUME_TOKEN, encoded);
+            if (!page.isEmpty() && page.size() >= Math.min(limit, MessageService.MAX_PAGE_SIZE)) {
+                ctx.header("Link", "<" + path + "?resume=" + encoded + "&limit=" + page.size() + ">; rel=\"next\"");
+            }
+            json(ctx, page);
+        }));
+    }
+
+    // Message bodies are written from the JSON fragment cache rather than re-serialized by ctx.json;
+    // the cache records its own encoding time under json_duration_seconds{operation="serialize"}.
+    private void json(Context ctx, Message message) {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(jsonCache.encode(message));
+    }
+
+    private void json(Context ctx, List<Message> messages) {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        try {
+            jsonCache.writeArray(messages, ctx.outputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    private void getMessagesByAccountId(Context ctx) {
-        int accountId = Integer.parseInt(ctx.pathParam("account_id"));
-        List<Message> messages = messageService.getMessagesByAccountId(accountId);
-        ctx.json(messages);
+    // Bulk Transfer Handlers
+    // ?include=accounts or ?include=messages limits the export to one kind of record (default: both).
+    private void exportData(Context ctx) throws IOException {
+        String include = ctx.queryParamAsClass("include", String.class).getOrDefault("accounts,messages");
+        ctx.contentType(NDJSON);
+        try {
+            transfer.export(ctx.outputStream(), include.contains("accounts"), include.contains("messages"));
+        } catch (IOException e) {
+            throw abortStream(ctx, new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            throw abortStream(ctx, e);
+        }
+    }
+
+    // Progress is streamed back as NDJSON while the body is still being read.
+    private void importData(Context ctx) throws IOException {
+        int afterAccountId = ctx.queryParamAsClass("after_account_id", Integer.class).getOrDefault(0);
+        int afterMessageId = ctx.queryParamAsClass("after_message_id", Integer.class).getOrDefault(0);
+        ctx.contentType(NDJSON);
+        transfer.importFrom(ctx.req().getInputStream(), ctx.outputStream(), afterAccountId, afterMessageId);
+    }
+
+    // Sets the validators for a response at this stamp. @return true if the client's copy is current and a 304 was sent
+    private boolean notModified(Context ctx, String etag, long stamp) {
+        ctx.header(Header.ETAG, etag);
+        ctx.header(Header.LAST_MODIFIED, DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(stamp).atZone(ZoneOffset.UTC)));
+
+        String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        String ifModifiedSince = ctx.header(Header.IF_MODIFIED_SINCE);
+        if (ifNoneMatch == null && ifModifiedSince == null) return false;
+
+        boolean current = ifNoneMatch != null
+                ? ResourceVersions.matches(ifNoneMatch, etag)
+                : stamp < parseHttpDate(ifModifiedSince);  // dates have one-second resolution; only a strictly later date is safe
+        if (current) {
+            ctx.status(304);
+        }
+        metrics.counter("http_conditional_requests_total", MetricsRegistry.label("result", current ? "not_modified" : "modified")).increment();
+        return current;
+    }
+
+    // @return the date in epoch millis, or Long.MIN_VALUE if malformed
+    private static long parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+package org.paul.restlearning.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// The resume token of an incremental sync: the last message_id the client has seen plus the filters it
+// synced with, so "?resume=<token>" repeats the same query from where the last response ended. Opaque
+// to clients (URL-safe base64 of "v1,<account>,<since_id>,<since>,<until>"); an open bound is empty.
+public final class SyncToken {
+    private static final String VERSION = "v1";
+
+    private final int accountId;
+    private final int sinceMessageId;
+    private final long sinceEpoch;
+    private final long untilEpoch;
+
+    // @param accountId 0 for a sync of every account's messages
+    // @param sinceEpoch Long.MIN_VALUE when open; untilEpoch Long.MAX_VALUE when open
+    public SyncToken(int accountId, int sinceMessageId, long sinceEpoch, long untilEpoch) {
+        this.accountId = accountId;
+        this.sinceMessageId = sinceMessageId;
+        this.sinceEpoch = sinceEpoch;
+        this.untilEpoch = untilEpoch;
+    }
+
+    // @return the token, or null if it is malformed or was issued by another version
+    public static SyncToken decode(String token) {
+        try {
+            String plain = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] fields = plain.split(",", -1);
+            if (fields.length != 5 || !fields[0].equals(VERSION)) return null;
+            return new SyncToken(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    fields[3].isEmpty() ? Long.MIN_VALUE : Long.parseLong(fields[3]),
+                    fields[4].isEmpty() ? Long.MAX_VALUE : Long.parseLong(fields[4]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public String encode() {
+        String plain = VERSION + "," + accountId + "," + sinceMessageId + ","
+                + (sinceEpoch == Long.MIN_VALUE ? "" : Long.toString(sinceEpoch)) + ","
+                + (untilEpoch == Long.MAX_VALUE ? "" : Long.toString(untilEpoch));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // @return the token to resume from after a response ending with lastMessageId
+    public SyncToken after(int lastMessageId) {
+        return new SyncToken(accountId, Math.max(sinceMessageId, lastMessageId), sinceEpoch, untilEpoch);
+    }
+
+    public int accountId() {
+        return accountId;
+    }
+
+    public int sinceMessageId() {
+        return sinceMessageId;
+    }
+
+    public long sinceEpoch() {
+        return sinceEpoch;
+    }
+
+    public long untilEpoch() {
+        return untilEpoch;
+    }
+}
@@ -2,10 +2,23 @@ package org.paul.restlearning.dao;
 
 import org.paul.restlearning.model.Account;
 import org.paul.restlearning.util.ConnectionUtil;
+import org.paul.restlearning.util.DatabaseUnavailableException;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class AccountDaoImpl implements IAccountDao{
+    // Rows pulled per round trip while streaming, so the driver never buffers the whole table.
+    private static final int STREAM_FETCH_SIZE = 5000;
+    // Rows read per query by forEachAccount; each chunk takes a connection and gives it back.
+    private static final int STREAM_CHUNK_SIZE = 1000;
+
     @Override
     public Account createAccount(Account account) {
         String sql = "INSERT INTO Account (username, password) VALUES (?, ?)";
@@ -24,7 +37,9 @@ public class AccountDaoImpl implements IAccountDao{
             rs = ps.getGeneratedKeys();
             if (rs.next()) {
                 int id = rs.getInt(1);
-                return new Account(id, account.getUsername(), account.getPassword());
+                Account created = new Account(id, account.getUsername(), account.getPassword());
+                wrote(created);
+                return created;
             }
 
         } catch (SQLException e) {
@@ -38,46 +53,118 @@ public class AccountDaoImpl implements IAccountDao{
         return null;
     }
 
+    // Inserts rows that keep their account_id (bulk import); the whole chunk commits or none of it does.
     @Override
-    public Account findByUsername(String username) {
-        String sql = "SELECT account_id, username, password FROM Account WHERE username = ?";
+    public boolean importAccounts(List<Account> accounts) {
+        String sql = "INSERT INTO Account (account_id, username, password) VALUES (?, ?, ?)";
         Connection conn = null;
         PreparedStatement ps = null;
-        ResultSet rs = null;
 
         try {
             conn = ConnectionUtil.getConnection();
+            conn.setAutoCommit(false);
             ps = conn.prepareStatement(sql);
-            ps.setString(1, username);
+            for (Account account : accounts) {
+                ps.setInt(1, account.getAccount_id());
+                ps.setString(2, account.getUsername());
+                ps.setString(3, account.getPassword());
+                ps.addBatch();
+            }
 
-            rs = ps.executeQuery();
-            if (rs.next()) {
-                return mapRowToAccount(rs);
+            ps.executeBatch();
+            conn.commit();
+            for (Account account : accounts) wrote(account);
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(ps);
+            restoreAutoCommit(conn);
+            close(conn);
+        }
+
+        return false;
+    }
+
+    // Moves the account_id sequence past the highest id, so rows imported with explicit ids don't collide with new ones.
+    // Never moves it back.
+    @Override
+    public void resyncIdSequence() {
+        Connection conn = null;
+        Statement st = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            // only ever forward: a deleted id must never be handed out again
+            conn.setAutoCommit(false);
+            st = conn.createStatement();
+            if (isPostgres(conn)) {
+                // keeps concurrent inserts from drawing ids between nextval and setval
+                st.execute("LOCK TABLE account IN SHARE ROW EXCLUSIVE MODE");
+                st.execute("SELECT setval(pg_get_serial_sequence('account', 'account_id'), GREATEST("
+                        + "nextval(pg_get_serial_sequence('account', 'account_id')), "
+                        + "COALESCE((SELECT MAX(account_id) FROM account), 0) + 1), false)");
+            } else {
+                rs = st.executeQuery("SELECT GREATEST(IDENTITY_BASE, (SELECT COALESCE(MAX(account_id), 0) + 1 FROM account)) "
+                        + "FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = 'ACCOUNT' AND COLUMN_NAME = 'ACCOUNT_ID'");
+                rs.next();
+                st.execute("ALTER TABLE account ALTER COLUMN account_id RESTART WITH " + rs.getLong(1));
             }
+            conn.commit();
 
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             close(rs);
+            close(st);
+            restoreAutoCommit(conn);
+            close(conn);
+        }
+    }
+
+    // Sets the password only while the row still holds expected, so a concurrent change is never overwritten.
+    // @return true if the row was updated
+    @Override
+    public boolean replacePassword(int accountId, String expected, String password) {
+        String sql = "UPDATE Account SET password = ? WHERE account_id = ? AND password = ?";
+        Connection conn = null;
+        PreparedStatement ps = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            ps = conn.prepareStatement(sql);
+            ps.setString(1, password);
+            ps.setInt(2, accountId);
+            ps.setString(3, expected);
+
+            if (ps.executeUpdate() > 0) {
+                ConnectionUtil.wrote("account", accountId);
+                return true;
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
             close(ps);
             close(conn);
         }
 
-        return null;
+        return false;
     }
 
     @Override
-    public Account findByUsernameAndPassword(String username, String password) {
-        String sql = "SELECT account_id, username, password FROM Account WHERE username = ? AND password = ?";
+    public Account findByUsername(String username) {
+        String sql = "SELECT account_id, username, password FROM Account WHERE username = ?";
         Connection conn = null;
         PreparedStatement ps = null;
         ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
+            conn = ConnectionUtil.getReadConnection("username", username);
             ps = conn.prepareStatement(sql);
             ps.setString(1, username);
-            ps.setString(2, password);
 
             rs = ps.executeQuery();
             if (rs.next()) {
@@ -95,31 +182,161 @@ public class AccountDaoImpl implements IAccountDao{
         return null;
     }
 
+    // Callers record a null as "no such account", so a miss on a replica is confirmed on the primary
+    // (the replica may not have the row yet) and a failed query throws rather than reading as a miss.
+    // @throws DatabaseUnavailableException if the lookup fails
     @Override
     public Account findById(int accountId) {
+        try {
+            Account account = queryById(ConnectionUtil.getReadConnection("account", accountId), accountId);
+            if (account == null && ConnectionUtil.hasReplicas()) {
+                account = queryById(ConnectionUtil.getConnection(), accountId);
+            }
+            return account;
+        } catch (SQLException e) {
+            throw new DatabaseUnavailableException("Account lookup failed for account_id " + accountId, e);
+        }
+    }
+
+    // Like findById: ids missing on a replica are checked again on the primary, and a failure throws.
+    // @throws DatabaseUnavailableException if the lookup fails
+    @Override
+    public Set<Integer> findExistingIds(Collection<Integer> accountIds) {
+        if (accountIds.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        try {
+            Set<Integer> existing = queryExistingIds(ConnectionUtil.getReadConnection(), accountIds);
+            if (existing.size() < accountIds.size() && ConnectionUtil.hasReplicas()) {
+                Set<Integer> missing = new HashSet<>(accountIds);
+                missing.removeAll(existing);
+                existing.addAll(queryExistingIds(ConnectionUtil.getConnection(), missing));
+            }
+            return existing;
+        } catch (SQLException e) {
+            throw new DatabaseUnavailableException("Account lookup failed for " + accountIds.size() + " account ids", e);
+        }
+    }
+
+    // Runs the lookup on conn and closes it.
+    private Account queryById(Connection conn, int accountId) throws SQLException {
         String sql = "SELECT account_id, username, password FROM Account WHERE account_id = ?";
-        Connection conn = null;
         PreparedStatement ps = null;
         ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
             ps = conn.prepareStatement(sql);
             ps.setInt(1, accountId);
 
             rs = ps.executeQuery();
-            if (rs.next()) {
-                return mapRowToAccount(rs);
+            return rs.next() ? mapRowToAccount(rs) : null;
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+    }
+
+    // Runs the lookup on conn and closes it.
+    private Set<Integer> queryExistingIds(Connection conn, Collection<Integer> accountIds) throws SQLException {
+        // one round trip for the whole set instead of a findById per id
+        String sql = "SELECT account_id FROM Account WHERE account_id = ANY(?)";
+        Set<Integer> existing = new HashSet<>();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            ps = conn.prepareStatement(sql);
+            ps.setArray(1, conn.createArrayOf("integer", accountIds.toArray(new Integer[0])));
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                existing.add(rs.getInt("account_id"));
             }
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return existing;
+    }
+
+    @Override
+    public void forEachAccountId(IntConsumer action) {
+        String sql = "SELECT account_id FROM Account";
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getReadConnection();
+            // Postgres only honours the fetch size (server-side cursor) inside a transaction.
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                action.accept(rs.getInt(1));
+            }
+            conn.commit();
 
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             close(rs);
             close(ps);
+            restoreAutoCommit(conn);
             close(conn);
         }
-        return null;
+    }
+
+    // Walks the table in keyset chunks, so a slow consumer (an export client) never holds a pooled
+    // connection for more than one chunk's query.
+    // @throws DatabaseUnavailableException if a chunk can't be read, so a stream is cut rather than ended early
+    @Override
+    public void forEachAccount(Consumer<Account> action) {
+        int after = 0;
+        List<Account> chunk;
+        do {
+            try {
+                chunk = readAccountsAfter(after, STREAM_CHUNK_SIZE);
+            } catch (SQLException e) {
+                throw new DatabaseUnavailableException("Account scan failed after account_id " + after, e);
+            }
+            for (Account account : chunk) {
+                action.accept(account);
+            }
+            if (!chunk.isEmpty()) after = chunk.get(chunk.size() - 1).getAccount_id();
+        } while (chunk.size() == STREAM_CHUNK_SIZE);
+    }
+
+    private List<Account> readAccountsAfter(int afterAccountId, int limit) throws SQLException {
+        String sql = "SELECT account_id, username, password FROM Account WHERE account_id > ? ORDER BY account_id LIMIT ?";
+        List<Account> accounts = new ArrayList<>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getReadConnection();
+            ps = conn.prepareStatement(sql);
+            ps.setInt(1, afterAccountId);
+            ps.setInt(2, limit);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                accounts.add(mapRowToAccount(rs));
+            }
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return accounts;
     }
 
     private Account mapRowToAccount(ResultSet rs) throws SQLException {
@@ -129,6 +346,30 @@ public class AccountDaoImpl implements IAccountDao{
                 rs.getString("password")
         );
     }
+    // Reads of this account, by id or username, go to the primary until replicas have caught up.
+    private static void wrote(Account account) {
+        ConnectionUtil.wrote("account", account.getAccount_id());
+        ConnectionUtil.wrote("username", account.getUsername());
+    }
+
+    private boolean isPostgres(Connection conn) throws SQLException {
+        return "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+    }
+
+    // Rolls back anything left open and hands the connection back to the pool in autocommit mode.
+    private void restoreAutoCommit(Connection conn) {
+        if (conn != null) {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void close(AutoCloseable ac) {
         if (ac != null) {
             try {
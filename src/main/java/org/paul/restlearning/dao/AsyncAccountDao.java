@@ -0,0 +1,44 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Account;
+import org.paul.restlearning.util.JdbcExecutor;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Runs a blocking IAccountDao on a JdbcExecutor.
+public class AsyncAccountDao implements IAsyncAccountDao {
+    private final IAccountDao dao;
+    private final JdbcExecutor executor;
+
+    public AsyncAccountDao(IAccountDao dao, JdbcExecutor executor) {
+        this.dao = dao;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Account> createAccount(Account account) {
+        return executor.supply(() -> dao.createAccount(account));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> replacePassword(int accountId, String expected, String password) {
+        return executor.supply(() -> dao.replacePassword(accountId, expected, password));
+    }
+
+    @Override
+    public CompletableFuture<Account> findByUsername(String username) {
+        return executor.supply(() -> dao.findByUsername(username));
+    }
+
+    @Override
+    public CompletableFuture<Account> findById(int accountId) {
+        return executor.supply(() -> dao.findById(accountId));
+    }
+
+    @Override
+    public CompletableFuture<Set<Integer>> findExistingIds(Collection<Integer> accountIds) {
+        return executor.supply(() -> dao.findExistingIds(accountIds));
+    }
+}
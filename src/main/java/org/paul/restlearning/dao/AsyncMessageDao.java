@@ -0,0 +1,74 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.JdbcExecutor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Runs a blocking IMessageDao on a JdbcExecutor. Wrapping the caching DAO keeps cache hits cheap,
+// though they still take a trip through the executor.
+public class AsyncMessageDao implements IAsyncMessageDao {
+    private final IMessageDao dao;
+    private final JdbcExecutor executor;
+
+    public AsyncMessageDao(IMessageDao dao, JdbcExecutor executor) {
+        this.dao = dao;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Message> createMessage(Message message) {
+        return executor.supply(() -> dao.createMessage(message));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> createMessages(List<Message> messages) {
+        return executor.supply(() -> dao.createMessages(messages));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findAllMessages() {
+        return executor.supply(dao::findAllMessages);
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findMessagesAfter(int afterMessageId, int limit) {
+        return executor.supply(() -> dao.findMessagesAfter(afterMessageId, limit));
+    }
+
+    @Override
+    public CompletableFuture<Message> findMessageById(int messageId) {
+        return executor.supply(() -> dao.findMessageById(messageId));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findMessagesByIds(int[] messageIds) {
+        return executor.supply(() -> dao.findMessagesByIds(messageIds));
+    }
+
+    @Override
+    public CompletableFuture<Message> deleteMessageById(int messageId) {
+        return executor.supply(() -> dao.deleteMessageById(messageId));
+    }
+
+    @Override
+    public CompletableFuture<Message> updateMessageText(int messageId, String newMessageText) {
+        return executor.supply(() -> dao.updateMessageText(messageId, newMessageText));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findMessagesByAccountId(int accountId) {
+        return executor.supply(() -> dao.findMessagesByAccountId(accountId));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        return executor.supply(() -> dao.findMessagesByAccountIdBefore(accountId, beforeEpoch, beforeMessageId, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit) {
+        return executor.supply(() -> dao.findMessagesSince(postedBy, sinceMessageId, sinceEpoch, untilEpoch, limit));
+    }
+}
@@ -0,0 +1,190 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+// Read-through cache in front of another IMessageDao. Single-message lookups are served from a
+// bounded LRU cache with a time-to-live; every mutation made through this DAO updates or drops the
+// cached entry so readers never see a message that this instance has already changed.
+public class CachingMessageDao implements IMessageDao {
+    private final IMessageDao delegate;
+    private final LruCache<Integer, Message> cache;
+
+    // Write stamps in slots indexed by a hash of the id, as in ResourceVersions, bumped by every update
+    // and delete: a read-through fill that raced with a write to its slot is not cached. Creates don't
+    // bump; a new id can't make a cached row stale.
+    private static final int STAMP_SLOTS = 1024;
+    private final AtomicLongArray writeStamps = new AtomicLongArray(STAMP_SLOTS);
+
+    public CachingMessageDao(IMessageDao delegate, int maxEntries, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxEntries, ttl, unit);
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        Message created = delegate.createMessage(message);
+        if (created != null) {
+            cache.put(created.getMessage_id(), copy(created));
+        }
+        return created;
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = delegate.createMessages(messages);
+        if (created != null) {
+            for (Message message : created) {
+                cache.put(message.getMessage_id(), copy(message));
+            }
+        }
+        return created;
+    }
+
+    @Override
+    public boolean importMessages(List<Message> messages) {
+        boolean imported = delegate.importMessages(messages);
+        if (imported) {
+            for (Message message : messages) {
+                cache.invalidate(message.getMessage_id());
+            }
+        }
+        return imported;
+    }
+
+    @Override
+    public void resyncIdSequence() {
+        delegate.resyncIdSequence();
+    }
+
+    @Override
+    public List<Message> findAllMessages() {
+        return delegate.findAllMessages();
+    }
+
+    @Override
+    public List<Message> findMessagesAfter(int afterMessageId, int limit) {
+        return delegate.findMessagesAfter(afterMessageId, limit);
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> action) {
+        delegate.forEachMessage(action);
+    }
+
+    @Override
+    public Message findMessageById(int messageId) {
+        Message cached = cache.get(messageId);
+        if (cached != null) {
+            return copy(cached);
+        }
+
+        int slot = slot(messageId);
+        long stamp = writeStamps.get(slot);
+        Message loaded = delegate.findMessageById(messageId);
+        if (loaded != null && writeStamps.get(slot) == stamp) {
+            cache.put(messageId, copy(loaded));
+            // a write that completed between the check and the put may have been overwritten by our older row
+            if (writeStamps.get(slot) != stamp) {
+                cache.invalidate(messageId);
+            }
+        }
+        return loaded;
+    }
+
+    // Cached messages are served from memory; the rest are loaded with one delegate call and cached
+    // under the same stamp check as findMessageById.
+    @Override
+    public List<Message> findMessagesByIds(int[] messageIds) {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+        // the write stamp of each id that missed, taken before the load
+        Map<Integer, Long> missed = new HashMap<>();
+        for (int messageId : messageIds) {
+            Message cached = cache.get(messageId);
+            if (cached != null) {
+                messages.add(copy(cached));
+            } else {
+                missed.put(messageId, writeStamps.get(slot(messageId)));
+            }
+        }
+        if (missed.isEmpty()) return messages;
+
+        int[] missing = missed.keySet().stream().mapToInt(Integer::intValue).toArray();
+        for (Message loaded : delegate.findMessagesByIds(missing)) {
+            int messageId = loaded.getMessage_id();
+            long stamp = missed.get(messageId);
+            int slot = slot(messageId);
+            if (writeStamps.get(slot) == stamp) {
+                cache.put(messageId, copy(loaded));
+                if (writeStamps.get(slot) != stamp) {
+                    cache.invalidate(messageId);
+                }
+            }
+            messages.add(loaded);
+        }
+        return messages;
+    }
+
+    // The stamp is bumped on both sides of the write: a read that loaded the old row while the write
+    // was in flight must not cache it, before or after the commit. The updated row isn't cached either:
+    // two updates can commit in one order and return in the other, and the next read fills the entry.
+    @Override
+    public Message deleteMessageById(int messageId) {
+        invalidate(messageId);
+        Message deleted = delegate.deleteMessageById(messageId);
+        invalidate(messageId);
+        return deleted;
+    }
+
+    @Override
+    public Message updateMessageText(int messageId, String newMessageText) {
+        invalidate(messageId);
+        Message updated = delegate.updateMessageText(messageId, newMessageText);
+        invalidate(messageId);
+        return updated;
+    }
+
+    @Override
+    public List<Message> findMessagesByAccountId(int accountId) {
+        return delegate.findMessagesByAccountId(accountId);
+    }
+
+    @Override
+    public List<Message> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        return delegate.findMessagesByAccountIdBefore(accountId, beforeEpoch, beforeMessageId, limit);
+    }
+
+    @Override
+    public List<Message> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit) {
+        return delegate.findMessagesSince(postedBy, sinceMessageId, sinceEpoch, untilEpoch, limit);
+    }
+
+    // Drops a single entry, e.g. when the message was changed somewhere this DAO can't see.
+    public void invalidate(int messageId) {
+        writeStamps.incrementAndGet(slot(messageId));
+        cache.invalidate(messageId);
+    }
+
+    // @return the underlying cache, exposed for its hit/miss/eviction counters
+    public LruCache<Integer, Message> cache() {
+        return cache;
+    }
+
+    private static int slot(int messageId) {
+        int h = messageId * 0x9E3779B9;  // spread sequential ids across the table
+        return (h ^ (h >>> 16)) & (STAMP_SLOTS - 1);
+    }
+
+    // Messages are mutable, so callers get their own copy rather than the cached instance.
+    private Message copy(Message m) {
+        return new Message(m.getMessage_id(), m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
+    }
+}
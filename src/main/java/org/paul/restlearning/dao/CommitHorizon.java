@@ -0,0 +1,40 @@
+package org.paul.restlearning.dao;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+// The highest message_id an incremental sync may hand out. Ids are drawn from a sequence when a row
+// is inserted, but transactions commit in any order, so id 100 can become visible after 101 has. A
+// client whose cursor already passed 101 would never see 100. The horizon is the highest id that
+// was observed committed at least `lag` ago; any insert that had drawn a lower id by then is assumed
+// to have committed or rolled back since.
+final class CommitHorizon {
+    private final long lagNanos;
+    // {System.nanoTime(), highest committed id} samples, oldest first, not yet old enough to count
+    private final ArrayDeque<long[]> samples = new ArrayDeque<>();
+    private int safeId;
+
+    CommitHorizon(long lag, TimeUnit unit) {
+        this.lagNanos = unit.toNanos(lag);
+    }
+
+    // A sample is wanted once the newest is a quarter of the lag old, so the horizon trails the
+    // database by at most 1.25 lags and a handful of samples are held at a time.
+    // @return true if the caller should read the highest committed id and record() it
+    synchronized boolean needsSample(long now) {
+        return samples.isEmpty() || now - samples.peekLast()[0] >= lagNanos / 4;
+    }
+
+    // @param highestId the highest message_id visible at time now (0 if the table is empty)
+    synchronized void record(long now, int highestId) {
+        samples.addLast(new long[] {now, highestId});
+    }
+
+    // @return the highest id observed at least lag before now, or 0 if nothing has been observed that long ago
+    synchronized int safeId(long now) {
+        while (!samples.isEmpty() && now - samples.peekFirst()[0] >= lagNanos) {
+            safeId = Math.max(safeId, (int) samples.pollFirst()[1]);
+        }
+        return safeId;
+    }
+}
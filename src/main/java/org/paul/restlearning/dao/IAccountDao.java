@@ -2,9 +2,20 @@ package org.paul.restlearning.dao;
 
 import org.paul.restlearning.model.Account;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
 public interface IAccountDao {
     Account createAccount(Account account);
+    boolean importAccounts(List<Account> accounts);
+    void resyncIdSequence();
+    boolean replacePassword(int accountId, String expected, String password);
     Account findByUsername(String username);
-    Account findByUsernameAndPassword(String username, String password);
     Account findById(int accountId);
+    Set<Integer> findExistingIds(Collection<Integer> accountIds);
+    void forEachAccountId(IntConsumer action);
+    void forEachAccount(Consumer<Account> action);
 }
@@ -0,0 +1,17 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Account;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// IAccountDao with every call completing on a JDBC thread instead of blocking the caller.
+// Streaming scans and bulk import stay on IAccountDao.
+public interface IAsyncAccountDao {
+    CompletableFuture<Account> createAccount(Account account);
+    CompletableFuture<Boolean> replacePassword(int accountId, String expected, String password);
+    CompletableFuture<Account> findByUsername(String username);
+    CompletableFuture<Account> findById(int accountId);
+    CompletableFuture<Set<Integer>> findExistingIds(Collection<Integer> accountIds);
+}
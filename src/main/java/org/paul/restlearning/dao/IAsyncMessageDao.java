@@ -0,0 +1,22 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// IMessageDao with every call completing on a JDBC thread instead of blocking the caller.
+// Streaming scans (forEachMessage) stay on IMessageDao: they write to the response as rows arrive.
+public interface IAsyncMessageDao {
+    CompletableFuture<Message> createMessage(Message message);
+    CompletableFuture<List<Message>> createMessages(List<Message> messages);
+    CompletableFuture<List<Message>> findAllMessages();
+    CompletableFuture<List<Message>> findMessagesAfter(int afterMessageId, int limit);
+    CompletableFuture<Message> findMessageById(int messageId);
+    CompletableFuture<List<Message>> findMessagesByIds(int[] messageIds);
+    CompletableFuture<Message> deleteMessageById(int messageId);
+    CompletableFuture<Message> updateMessageText(int messageId, String newMessageText);
+    CompletableFuture<List<Message>> findMessagesByAccountId(int accountId);
+    CompletableFuture<List<Message>> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit);
+    CompletableFuture<List<Message>> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit);
+}
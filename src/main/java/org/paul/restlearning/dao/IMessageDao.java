@@ -2,12 +2,23 @@ package org.paul.restlearning.dao;
 
 import org.paul.restlearning.model.Message;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface IMessageDao {
     Message createMessage(Message message);
+    List<Message> createMessages(List<Message> messages);
+    boolean importMessages(List<Message> messages);
+    void resyncIdSequence();
     List<Message> findAllMessages();
+    List<Message> findMessagesAfter(int afterMessageId, int limit);
+    void forEachMessage(Consumer<Message> action);
     Message findMessageById(int messageId);
+    // the messages that exist among messageIds, in no particular order
+    List<Message> findMessagesByIds(int[] messageIds);
     Message deleteMessageById(int messageId);
     Message updateMessageText(int messageId, String newMessageText);
     List<Message> findMessagesByAccountId(int accountId);
+    List<Message> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit);
+    // postedBy 0 means any account; Long.MIN_VALUE / Long.MAX_VALUE leave that end of the time range open
+    List<Message> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit);
 }
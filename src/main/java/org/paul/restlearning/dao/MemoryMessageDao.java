@@ -0,0 +1,1145 @@
+package org.paul.restlearning.dao;
+
+import org.paul.restlearning.model.Message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// IMessageDao that holds every message in memory, for single-node deployments where a database
+// round trip per call is most of the cost. Rows are stored column by column: ids, posted_by and text
+// offsets/lengths in int arrays, time_posted_epoch in a long array, and all texts as UTF-8 in one
+// byte arena, so a message costs about 24 bytes plus its text instead of a Message, a String and a
+// byte[] (~90 bytes of headers and pointers). Message objects are only built for results.
+//
+// Rows are kept sorted by message_id, so lookups and keyset scans are binary searches. Each account
+// has a primitive list of its row numbers, in id order. Deletes mark the row dead and edits append
+// the new text; the dead space is reclaimed by compacting once it reaches a quarter of the store.
+// One read-write lock guards everything, as in SearchIndex: reads run in parallel, and writes are
+// short (an append to the log and a few array stores). The exceptions are compaction and the start
+// of a snapshot, which copy the columns (about 24 bytes a row, a few milliseconds per million rows)
+// while holding the write lock. The text arena is not copied for a snapshot: bytes below arenaUsed
+// never change, since edits append and compaction builds a new array.
+//
+// Durability: every change is appended to a write-ahead log (messages.<generation>.wal) before it is
+// applied; with syncWrites each append is forced to disk, otherwise it survives a process crash but
+// not a power cut. Once the log passes snapshotWalBytes, a background thread copies the columns,
+// starts the next generation of log and writes messages.snapshot, after which older logs are deleted.
+// Opening replays the snapshot and any logs after it; a torn record at the end of a log is ignored.
+public class MemoryMessageDao implements IMessageDao, AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x4d534753; // "MSGS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE = "messages.snapshot";
+    private static final byte INSERT = 'I';
+    private static final byte UPDATE = 'U';
+    private static final byte DELETE = 'D';
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+    private static final int MIN_DEAD_ROWS = 1024;
+    private static final int MIN_DEAD_BYTES = 1024 * 1024;
+    // Rows copied out per read-lock hold by forEachMessage, so a long scan doesn't hold up writers.
+    private static final int SCAN_CHUNK = 1000;
+
+    private final Path dir;
+    private final boolean syncWrites;
+    private final long snapshotWalBytes;
+    private final Function<Collection<Integer>, Set<Integer>> existingAccounts;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "message-store-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Columns; rows [0, size) are sorted by id. A dead row keeps its id and has text length -1.
+    private int[] ids = new int[INITIAL_ROWS];
+    private int[] postedBy = new int[INITIAL_ROWS];
+    private long[] epochs = new long[INITIAL_ROWS];
+    private int[] textOffsets = new int[INITIAL_ROWS];
+    private int[] textLengths = new int[INITIAL_ROWS];
+    private byte[] arena = new byte[INITIAL_ARENA_BYTES];
+    private int arenaUsed;
+    private int size;
+    private int live;
+    private long deadBytes;
+    private final Map<Integer, IntList> byAccount = new HashMap<>();
+    private int nextId = 1;
+
+    // The current log, appended to under the write lock.
+    private FileChannel wal;
+    private long walGeneration;
+    private long walBytes;
+    private boolean walFailed;
+    private ByteBuffer record = ByteBuffer.allocate(4096);
+
+    private final boolean created;
+
+    // Opens the store in dir, creating it if needed, and replays what is on disk.
+    // @param syncWrites force every log append to disk before the change is acknowledged
+    // @param snapshotWalBytes log size that triggers a snapshot
+    // @param existingAccounts stands in for the posted_by foreign key on importMessages: returns which
+    //        of the given account ids exist; null skips the check
+    // @throws IllegalStateException if the files can't be read or a snapshot is corrupt
+    public MemoryMessageDao(Path dir, boolean syncWrites, long snapshotWalBytes,
+                            Function<Collection<Integer>, Set<Integer>> existingAccounts) {
+        this.dir = dir;
+        this.syncWrites = syncWrites;
+        this.snapshotWalBytes = snapshotWalBytes;
+        this.existingAccounts = existingAccounts;
+        try {
+            Files.createDirectories(dir);
+            this.created = recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open message store in " + dir, e);
+        }
+    }
+
+    // @return true if there was nothing on disk when the store was opened
+    public boolean isNew() {
+        return created;
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        List<Message> created = createMessages(List.of(message));
+        return created == null ? null : created.get(0);
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return created;
+        }
+
+        int count = messages.size();
+        int[] newIds = new int[count];
+        int[] newPostedBy = new int[count];
+        long[] newEpochs = new long[count];
+        byte[][] texts = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            newPostedBy[i] = message.getPosted_by();
+            newEpochs[i] = message.getTime_posted_epoch();
+            texts[i] = utf8(message.getMessage_text());
+        }
+
+        boolean snapshotDue;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                newIds[i] = nextId + i;
+            }
+            // the whole batch is one log record, so it is recovered entirely or not at all
+            if (!log(encodeInsert(newIds, newPostedBy, newEpochs, texts))) return null;
+            insert(newIds, newPostedBy, newEpochs, texts);
+            snapshotDue = snapshotDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (snapshotDue) snapshotInBackground();
+
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            created.add(new Message(newIds[i], message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch()));
+        }
+        return created;
+    }
+
+    // Inserts rows that keep their message_id; like the table's constraints, an id that is taken,
+    // repeated, or not positive, or a posted_by with no account, fails the whole chunk.
+    @Override
+    public boolean importMessages(List<Message> messages) {
+        int count = messages.size();
+        int[] newIds = new int[count];
+        int[] newPostedBy = new int[count];
+        long[] newEpochs = new long[count];
+        byte[][] texts = new byte[count][];
+        Set<Integer> accounts = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            newIds[i] = message.getMessage_id();
+            newPostedBy[i] = message.getPosted_by();
+            newEpochs[i] = message.getTime_posted_epoch();
+            texts[i] = utf8(message.getMessage_text());
+            accounts.add(message.getPosted_by());
+        }
+        int[] sortedIds = newIds.clone();
+        Arrays.sort(sortedIds);
+        for (int i = 0; i < count; i++) {
+            if (sortedIds[i] <= 0 || (i > 0 && sortedIds[i] == sortedIds[i - 1])) return false;
+        }
+        if (existingAccounts != null && !existingAccounts.apply(accounts).containsAll(accounts)) {
+            return false;
+        }
+
+        boolean snapshotDue;
+        lock.writeLock().lock();
+        try {
+            for (int id : newIds) {
+                // a deleted id may come back; only a live one is taken
+                int row = find(id, size);
+                if (row >= 0 && textLengths[row] >= 0) return false;
+            }
+            if (!log(encodeInsert(newIds, newPostedBy, newEpochs, texts))) return false;
+            insert(newIds, newPostedBy, newEpochs, texts);
+            snapshotDue = snapshotDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (snapshotDue) snapshotInBackground();
+        return true;
+    }
+
+    // The next id is always past every id ever stored, imported or deleted, so there is nothing to move.
+    @Override
+    public void resyncIdSequence() {
+        lock.writeLock().lock();
+        try {
+            if (size > 0) nextId = Math.max(nextId, ids[size - 1] + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findAllMessages() {
+        return findMessagesAfter(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> findMessagesAfter(int afterMessageId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int row = upperBound(afterMessageId); row < size && messages.size() < limit; row++) {
+                if (textLengths[row] >= 0) messages.add(toMessage(row));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> action) {
+        int after = 0;
+        List<Message> chunk;
+        do {
+            chunk = findMessagesAfter(after, SCAN_CHUNK);
+            for (Message message : chunk) {
+                action.accept(message);
+            }
+            if (!chunk.isEmpty()) after = chunk.get(chunk.size() - 1).getMessage_id();
+        } while (chunk.size() == SCAN_CHUNK);
+    }
+
+    @Override
+    public Message findMessageById(int messageId) {
+        lock.readLock().lock();
+        try {
+            int row = find(messageId, size);
+            return row >= 0 && textLengths[row] >= 0 ? toMessage(row) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findMessagesByIds(int[] messageIds) {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+        lock.readLock().lock();
+        try {
+            for (int messageId : messageIds) {
+                int row = find(messageId, size);
+                if (row >= 0 && textLengths[row] >= 0) messages.add(toMessage(row));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public Message deleteMessageById(int messageId) {
+        boolean snapshotDue;
+        Message deleted;
+        lock.writeLock().lock();
+        try {
+            int row = find(messageId, size);
+            if (row < 0 || textLengths[row] < 0) return null;
+            if (!log(encodeDelete(messageId))) return null;
+            deleted = toMessage(row);
+            delete(row);
+            snapshotDue = snapshotDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (snapshotDue) snapshotInBackground();
+        return deleted;
+    }
+
+    @Override
+    public Message updateMessageText(int messageId, String newMessageText) {
+        byte[] text = utf8(newMessageText);
+        boolean snapshotDue;
+        Message updated;
+        lock.writeLock().lock();
+        try {
+            int row = find(messageId, size);
+            if (row < 0 || textLengths[row] < 0) return null;
+            if (!log(encodeUpdate(messageId, text))) return null;
+            updated = new Message(messageId, postedBy[row], newMessageText, epochs[row]);
+            update(row, text);
+            snapshotDue = snapshotDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (snapshotDue) snapshotInBackground();
+        return updated;
+    }
+
+    @Override
+    public List<Message> findMessagesByAccountId(int accountId) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList rows = byAccount.get(accountId);
+            if (rows == null) return messages;
+            for (int i = 0; i < rows.size; i++) {
+                int row = rows.values[i];
+                if (textLengths[row] >= 0) messages.add(toMessage(row));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    // Newest first by (time_posted_epoch, message_id). The account's rows are in id order, which is
+    // normally also time order: then the page is a binary search and a walk back. Otherwise (clients
+    // posted with older timestamps) it is picked with a bounded insertion sort over all of them.
+    @Override
+    public List<Message> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList rows = byAccount.get(accountId);
+            if (rows == null || limit <= 0) return messages;
+            if (rows.timeOrdered) {
+                for (int i = rows.lowerBound(epochs, ids, beforeEpoch, beforeMessageId) - 1; i >= 0 && messages.size() < limit; i--) {
+                    int row = rows.values[i];
+                    if (textLengths[row] >= 0) messages.add(toMessage(row));
+                }
+                return messages;
+            }
+
+            int[] page = new int[Math.min(limit, rows.size)];
+            int n = 0;
+            for (int i = 0; i < rows.size; i++) {
+                int row = rows.values[i];
+                if (textLengths[row] < 0) continue;
+                long epoch = epochs[row];
+                if (epoch > beforeEpoch || (epoch == beforeEpoch && ids[row] >= beforeMessageId)) continue;
+                if (n == page.length && !newer(row, page[n - 1])) continue;
+
+                int at = n < page.length ? n++ : n - 1;
+                while (at > 0 && newer(row, page[at - 1])) {
+                    page[at] = page[at - 1];
+                    at--;
+                }
+                page[at] = row;
+            }
+            for (int i = 0; i < n; i++) {
+                messages.add(toMessage(page[i]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (postedBy > 0) {
+                IntList rows = byAccount.get(postedBy);
+                if (rows == null) return messages;
+                for (int i = rows.upperBound(ids, sinceMessageId); i < rows.size && messages.size() < limit; i++) {
+                    addIfInRange(messages, rows.values[i], sinceEpoch, untilEpoch);
+                }
+            } else {
+                for (int row = upperBound(sinceMessageId); row < size && messages.size() < limit; row++) {
+                    addIfInRange(messages, row, sinceEpoch, untilEpoch);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    // @return live messages
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // @return approximate heap held by the columns, the text arena and the per-account lists
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = (long) ids.length * (4 + 4 + 8 + 4 + 4) + arena.length;
+            for (IntList rows : byAccount.values()) {
+                // map entry, boxed key, list object and array header
+                bytes += 80 + 4L * rows.values.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // @return bytes in the current log generation
+    public long walBytes() {
+        lock.readLock().lock();
+        try {
+            return walBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Writes a snapshot now and drops the logs it covers. Runs at most once at a time; returns
+    // without doing anything if a snapshot is already being written.
+    // @throws IllegalStateException if the snapshot could not be written; the logs are kept
+    public void snapshot() {
+        if (!snapshotting.compareAndSet(false, true)) return;
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write message store snapshot in " + dir, e);
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            if (wal != null) {
+                wal.force(false);
+                wal.close();
+                wal = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---- in-memory operations, under the write lock ----
+
+    // Adds rows, or replaces rows with the same id (a replayed log may repeat what a snapshot has).
+    // New rows are appended in id order; if they belong before existing rows they are merged in
+    // afterwards, in one pass over the rows they jump, so importing below the newest id costs what it
+    // moves rather than a compaction per chunk.
+    private void insert(int[] newIds, int[] newPostedBy, long[] newEpochs, byte[][] texts) {
+        int sorted = size;
+        boolean outOfOrder = false;
+        int[] order = ascendingOrder(newIds);
+        for (int i : order) {
+            int id = newIds[i];
+            int row = find(id, sorted);
+            if (row >= 0) {
+                if (textLengths[row] >= 0) {
+                    deadBytes += textLengths[row];
+                } else {
+                    live++;
+                }
+                if (postedBy[row] != newPostedBy[i] || epochs[row] != newEpochs[i]) {
+                    moveInAccounts(row, newPostedBy[i], newEpochs[i]);
+                }
+            } else {
+                ensureRows(size + 1);
+                row = size++;
+                ids[row] = id;
+                postedBy[row] = newPostedBy[i];
+                epochs[row] = newEpochs[i];
+                live++;
+                if (row > 0 && ids[row - 1] > id) outOfOrder = true;
+                if (!outOfOrder) addToAccount(row);
+            }
+            putText(row, texts[i]);
+            nextId = Math.max(nextId, id + 1);
+        }
+        if (outOfOrder) {
+            mergeAppended(sorted);
+        }
+        compactIfWasteful();
+    }
+
+    // Merges the rows appended at [sorted, size), ascending among themselves, into the rows before
+    // them. Works from the back, so rows below the first appended id don't move; texts stay put.
+    // Only the accounts of rows that moved have their lists redone, from the first moved row on.
+    private void mergeAppended(int sorted) {
+        int[] tailIds = Arrays.copyOfRange(ids, sorted, size);
+        int[] tailPostedBy = Arrays.copyOfRange(postedBy, sorted, size);
+        long[] tailEpochs = Arrays.copyOfRange(epochs, sorted, size);
+        int[] tailOffsets = Arrays.copyOfRange(textOffsets, sorted, size);
+        int[] tailLengths = Arrays.copyOfRange(textLengths, sorted, size);
+        int from = sorted - 1;
+        int tail = tailIds.length - 1;
+        for (int to = size - 1; tail >= 0; to--) {
+            if (from >= 0 && ids[from] > tailIds[tail]) {
+                ids[to] = ids[from];
+                postedBy[to] = postedBy[from];
+                epochs[to] = epochs[from];
+                textOffsets[to] = textOffsets[from];
+                textLengths[to] = textLengths[from];
+                from--;
+            } else {
+                ids[to] = tailIds[tail];
+                postedBy[to] = tailPostedBy[tail];
+                epochs[to] = tailEpochs[tail];
+                textOffsets[to] = tailOffsets[tail];
+                textLengths[to] = tailLengths[tail];
+                tail--;
+            }
+        }
+
+        int first = from + 1;
+        Set<IntList> redone = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int row = first; row < size; row++) {
+            IntList rows = byAccount.computeIfAbsent(postedBy[row], k -> new IntList());
+            if (redone.add(rows)) rows.size = rows.countBelow(first);
+            addToAccount(row);
+        }
+    }
+
+    // Gives an existing row another account or time, keeping both accounts' lists in row order.
+    private void moveInAccounts(int row, int account, long epoch) {
+        IntList old = byAccount.get(postedBy[row]);
+        if (old != null) old.remove(row);
+        postedBy[row] = account;
+        epochs[row] = epoch;
+        IntList rows = byAccount.computeIfAbsent(account, k -> new IntList());
+        int at = rows.insert(row);
+        if ((at > 0 && epochs[rows.values[at - 1]] > epoch)
+                || (at + 1 < rows.size && epochs[rows.values[at + 1]] < epoch)) {
+            rows.timeOrdered = false;
+        }
+    }
+
+    // @return the indexes of ids in ascending id order, so a batch imported in any order still appends in order
+    private static int[] ascendingOrder(int[] ids) {
+        int[] order = new int[ids.length];
+        boolean ascending = true;
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = i;
+            if (i > 0 && ids[i] < ids[i - 1]) ascending = false;
+        }
+        if (ascending) return order;
+
+        long[] keyed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keyed[i] = ((long) ids[i] << 32) | i;
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = (int) keyed[i];
+        }
+        return order;
+    }
+
+    // Appends row, the account's newest by id, to its account's list.
+    private void addToAccount(int row) {
+        IntList rows = byAccount.computeIfAbsent(postedBy[row], k -> new IntList());
+        if (rows.size > 0 && epochs[rows.values[rows.size - 1]] > epochs[row]) rows.timeOrdered = false;
+        rows.add(row);
+    }
+
+    private void update(int row, byte[] text) {
+        deadBytes += textLengths[row];
+        putText(row, text);
+        compactIfWasteful();
+    }
+
+    private void delete(int row) {
+        deadBytes += textLengths[row];
+        textLengths[row] = -1;
+        live--;
+        compactIfWasteful();
+    }
+
+    private void putText(int row, byte[] text) {
+        if ((long) arenaUsed + text.length > arena.length) {
+            long needed = (long) arenaUsed + text.length;
+            if (needed > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("Message text arena is full");
+            }
+            arena = Arrays.copyOf(arena, (int) Math.min(MAX_ARRAY_LENGTH, Math.max(needed, arena.length + (arena.length >> 1))));
+        }
+        System.arraycopy(text, 0, arena, arenaUsed, text.length);
+        textOffsets[row] = arenaUsed;
+        textLengths[row] = text.length;
+        arenaUsed += text.length;
+    }
+
+    private void ensureRows(int rows) {
+        if (rows <= ids.length) return;
+        int capacity = Math.max(rows, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        postedBy = Arrays.copyOf(postedBy, capacity);
+        epochs = Arrays.copyOf(epochs, capacity);
+        textOffsets = Arrays.copyOf(textOffsets, capacity);
+        textLengths = Arrays.copyOf(textLengths, capacity);
+    }
+
+    private void compactIfWasteful() {
+        int deadRows = size - live;
+        if ((deadRows >= MIN_DEAD_ROWS && deadRows > size / 4)
+                || (deadBytes >= MIN_DEAD_BYTES && deadBytes > arenaUsed / 4)) {
+            compact();
+        }
+    }
+
+    // Rewrites the columns with live rows only, sorted by id, and their texts packed in that order;
+    // rebuilds the per-account lists.
+    private void compact() {
+        long[] order = new long[live];
+        int n = 0;
+        long liveBytes = 0;
+        for (int row = 0; row < size; row++) {
+            if (textLengths[row] >= 0) {
+                order[n++] = ((long) ids[row] << 32) | row;
+                liveBytes += textLengths[row];
+            }
+        }
+        Arrays.sort(order);
+
+        int capacity = Math.max(INITIAL_ROWS, live + (live >> 1));
+        int[] newIds = new int[capacity];
+        int[] newPostedBy = new int[capacity];
+        long[] newEpochs = new long[capacity];
+        int[] newOffsets = new int[capacity];
+        int[] newLengths = new int[capacity];
+        byte[] newArena = new byte[(int) Math.min(MAX_ARRAY_LENGTH, Math.max(INITIAL_ARENA_BYTES, liveBytes + (liveBytes >> 1)))];
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            int row = (int) order[i];
+            newIds[i] = ids[row];
+            newPostedBy[i] = postedBy[row];
+            newEpochs[i] = epochs[row];
+            newOffsets[i] = used;
+            newLengths[i] = textLengths[row];
+            System.arraycopy(arena, textOffsets[row], newArena, used, textLengths[row]);
+            used += textLengths[row];
+        }
+
+        ids = newIds;
+        postedBy = newPostedBy;
+        epochs = newEpochs;
+        textOffsets = newOffsets;
+        textLengths = newLengths;
+        arena = newArena;
+        arenaUsed = used;
+        byAccount.clear();
+        size = n;
+        deadBytes = 0;
+        for (int row = 0; row < n; row++) {
+            addToAccount(row);
+        }
+    }
+
+    // ---- reads, under either lock ----
+
+    // @return the row holding id among rows [0, rows), dead or alive, or -1
+    private int find(int id, int rows) {
+        int row = Arrays.binarySearch(ids, 0, rows, id);
+        return row >= 0 ? row : -1;
+    }
+
+    // @return the first row with an id greater than id
+    private int upperBound(int id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // @return whether row a comes before row b in newest-first order
+    private boolean newer(int a, int b) {
+        return epochs[a] > epochs[b] || (epochs[a] == epochs[b] && ids[a] > ids[b]);
+    }
+
+    private void addIfInRange(List<Message> messages, int row, long sinceEpoch, long untilEpoch) {
+        if (textLengths[row] < 0) return;
+        if (sinceEpoch != Long.MIN_VALUE && epochs[row] < sinceEpoch) return;
+        if (untilEpoch != Long.MAX_VALUE && epochs[row] >= untilEpoch) return;
+        messages.add(toMessage(row));
+    }
+
+    private Message toMessage(int row) {
+        return new Message(ids[row], postedBy[row],
+                new String(arena, textOffsets[row], textLengths[row], StandardCharsets.UTF_8), epochs[row]);
+    }
+
+    private static byte[] utf8(String text) {
+        return text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---- write-ahead log ----
+    // A record is [int body length][int CRC32 of body][body]; the body starts with its type:
+    //   I count (id posted_by epoch length text)*   rows created or imported
+    //   U id length text                            new text
+    //   D id
+
+    private ByteBuffer encodeInsert(int[] newIds, int[] newPostedBy, long[] newEpochs, byte[][] texts) {
+        int bytes = 1 + 4;
+        for (byte[] text : texts) bytes += 4 + 4 + 8 + 4 + text.length;
+        ByteBuffer body = recordBuffer(bytes);
+        body.put(INSERT).putInt(newIds.length);
+        for (int i = 0; i < newIds.length; i++) {
+            body.putInt(newIds[i]).putInt(newPostedBy[i]).putLong(newEpochs[i]).putInt(texts[i].length).put(texts[i]);
+        }
+        return body;
+    }
+
+    private ByteBuffer encodeUpdate(int id, byte[] text) {
+        return recordBuffer(1 + 4 + 4 + text.length).put(UPDATE).putInt(id).putInt(text.length).put(text);
+    }
+
+    private ByteBuffer encodeDelete(int id) {
+        return recordBuffer(1 + 4).put(DELETE).putInt(id);
+    }
+
+    // @return the shared record buffer, cleared, with room for the header and bodyBytes
+    private ByteBuffer recordBuffer(int bodyBytes) {
+        if (record.capacity() < RECORD_HEADER_BYTES + bodyBytes) {
+            record = ByteBuffer.allocate(Math.max(RECORD_HEADER_BYTES + bodyBytes, record.capacity() * 2));
+        }
+        record.clear();
+        record.position(RECORD_HEADER_BYTES);
+        return record;
+    }
+
+    // Appends the record in the shared buffer. A failed append is cut off again so later records
+    // stay readable; if that fails too, the store refuses further writes.
+    // @return whether the record is in the log
+    private boolean log(ByteBuffer buffer) {
+        if (walFailed) return false;
+        int bodyBytes = buffer.position() - RECORD_HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_BYTES, bodyBytes);
+        buffer.putInt(0, bodyBytes).putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        long start = walBytes;
+        try {
+            while (buffer.hasRemaining()) {
+                wal.write(buffer);
+            }
+            if (syncWrites) wal.force(false);
+            walBytes += RECORD_HEADER_BYTES + bodyBytes;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                wal.truncate(start);
+                wal.position(start);
+            } catch (IOException truncateFailed) {
+                truncateFailed.printStackTrace();
+                walFailed = true;
+            }
+            return false;
+        }
+    }
+
+    // Applies the records of one log file, stopping at the first incomplete or corrupt one.
+    // @return the number of records applied
+    private int replay(Path file) throws IOException {
+        int applied = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] body;
+                try {
+                    int bodyBytes = in.readInt();
+                    int checksum = in.readInt();
+                    if (bodyBytes <= 0 || bodyBytes > MAX_RECORD_BYTES) break;
+                    body = new byte[bodyBytes];
+                    in.readFully(body);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) break;
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(body));
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        if (type == INSERT) {
+            int count = body.getInt();
+            int[] newIds = new int[count];
+            int[] newPostedBy = new int[count];
+            long[] newEpochs = new long[count];
+            byte[][] texts = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                newIds[i] = body.getInt();
+                newPostedBy[i] = body.getInt();
+                newEpochs[i] = body.getLong();
+                texts[i] = new byte[body.getInt()];
+                body.get(texts[i]);
+            }
+            insert(newIds, newPostedBy, newEpochs, texts);
+        } else if (type == UPDATE) {
+            int row = find(body.getInt(), size);
+            byte[] text = new byte[body.getInt()];
+            body.get(text);
+            if (row >= 0 && textLengths[row] >= 0) update(row, text);
+        } else if (type == DELETE) {
+            int row = find(body.getInt(), size);
+            if (row >= 0 && textLengths[row] >= 0) delete(row);
+        } else {
+            throw new IllegalStateException("Unknown message log record type " + type);
+        }
+    }
+
+    private Path walFile(long generation) {
+        return dir.resolve("messages." + generation + ".wal");
+    }
+
+    // @return the log files in dir by generation
+    private TreeMap<Long, Path> walFiles() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "messages.*.wal")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring("messages.".length(), name.length() - ".wal".length())), file);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    // Starts logging to a new generation; called with the write lock held (or before the store is shared).
+    private void openWal(long generation) throws IOException {
+        if (wal != null) {
+            wal.force(false);
+            wal.close();
+        }
+        wal = FileChannel.open(walFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        walGeneration = generation;
+        walBytes = 0;
+    }
+
+    // ---- snapshots ----
+    // messages.snapshot holds every row as of the start of log `generation`:
+    //   magic version generation nextId count, then the ids, posted_by, epochs and text lengths
+    //   columns, then the texts back to back, then a CRC32 of all of it.
+
+    // @return true if there was nothing to recover
+    private boolean recover() throws IOException {
+        Path snapshotFile = dir.resolve(SNAPSHOT_FILE);
+        long generation = 1;
+        boolean found = false;
+        if (Files.exists(snapshotFile)) {
+            generation = readSnapshot(snapshotFile);
+            found = true;
+        }
+
+        int replayed = 0;
+        for (Map.Entry<Long, Path> file : walFiles().entrySet()) {
+            if (file.getKey() < generation) {
+                Files.delete(file.getValue());
+            } else {
+                found = true;
+                replayed += replay(file.getValue());
+                generation = file.getKey();
+            }
+        }
+
+        if (replayed > 0) {
+            // fold the logs into a snapshot, so the next start doesn't replay them again
+            walGeneration = generation;
+            snapshot();
+        } else {
+            for (Path file : walFiles().values()) {
+                Files.delete(file);
+            }
+            openWal(generation);
+        }
+        return !found;
+    }
+
+    private boolean snapshotDue() {
+        return walBytes >= snapshotWalBytes && !snapshotting.get();
+    }
+
+    private void snapshotInBackground() {
+        snapshotter.execute(() -> {
+            try {
+                snapshot();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void writeSnapshot() throws IOException {
+        int[] snapIds;
+        int[] snapPostedBy;
+        long[] snapEpochs;
+        int[] snapOffsets;
+        int[] snapLengths;
+        byte[] snapArena;
+        int rows;
+        int snapNextId;
+        long generation;
+
+        // copy the columns and switch logs in one step, so the snapshot and the new log don't overlap
+        lock.writeLock().lock();
+        try {
+            rows = size;
+            snapIds = Arrays.copyOf(ids, rows);
+            snapPostedBy = Arrays.copyOf(postedBy, rows);
+            snapEpochs = Arrays.copyOf(epochs, rows);
+            snapOffsets = Arrays.copyOf(textOffsets, rows);
+            snapLengths = Arrays.copyOf(textLengths, rows);
+            snapArena = arena;                  // append-only below arenaUsed; see the class comment
+            snapNextId = nextId;
+            generation = walGeneration + 1;
+            openWal(generation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (snapLengths[row] >= 0) count++;
+        }
+
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), crc))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(generation);
+            out.writeInt(snapNextId);
+            out.writeInt(count);
+            for (int row = 0; row < rows; row++) if (snapLengths[row] >= 0) out.writeInt(snapIds[row]);
+            for (int row = 0; row < rows; row++) if (snapLengths[row] >= 0) out.writeInt(snapPostedBy[row]);
+            for (int row = 0; row < rows; row++) if (snapLengths[row] >= 0) out.writeLong(snapEpochs[row]);
+            for (int row = 0; row < rows; row++) if (snapLengths[row] >= 0) out.writeInt(snapLengths[row]);
+            for (int row = 0; row < rows; row++) {
+                if (snapLengths[row] >= 0) out.write(snapArena, snapOffsets[row], snapLengths[row]);
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (Map.Entry<Long, Path> file : walFiles().headMap(generation).entrySet()) {
+            Files.deleteIfExists(file.getValue());
+        }
+    }
+
+    // Loads a snapshot into the (empty) columns.
+    // @return the generation of the first log not included in it
+    private long readSnapshot(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IllegalStateException("Not a message store snapshot: " + file);
+            }
+            long generation = in.readLong();
+            int snapNextId = in.readInt();
+            int count = in.readInt();
+
+            ensureRows(count);
+            for (int row = 0; row < count; row++) ids[row] = in.readInt();
+            for (int row = 0; row < count; row++) postedBy[row] = in.readInt();
+            for (int row = 0; row < count; row++) epochs[row] = in.readLong();
+            long bytes = 0;
+            for (int row = 0; row < count; row++) {
+                textLengths[row] = in.readInt();
+                textOffsets[row] = (int) bytes;
+                bytes += textLengths[row];
+            }
+            if (bytes > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("Message store snapshot is too large: " + file);
+            }
+            arena = new byte[(int) Math.min(MAX_ARRAY_LENGTH, Math.max(INITIAL_ARENA_BYTES, bytes + (bytes >> 1)))];
+            in.readFully(arena, 0, (int) bytes);
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IllegalStateException("Message store snapshot is corrupt: " + file);
+            }
+
+            size = count;
+            live = count;
+            arenaUsed = (int) bytes;
+            nextId = snapNextId;
+            for (int row = 0; row < count; row++) {
+                addToAccount(row);
+            }
+            return generation;
+        }
+    }
+
+    // Growable list of row numbers, ascending.
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+        // whether the rows are also in (time_posted_epoch, message_id) order
+        private boolean timeOrdered = true;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        // Rows are held in ascending order, which is also id order.
+        // @return the number of rows below row
+        int countBelow(int row) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < row) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // @return the index row now has
+        int insert(int row) {
+            int at = countBelow(row);
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            System.arraycopy(values, at, values, at + 1, size - at);
+            values[at] = row;
+            size++;
+            return at;
+        }
+
+        void remove(int row) {
+            int at = countBelow(row);
+            if (at < size && values[at] == row) {
+                System.arraycopy(values, at + 1, values, at, size - at - 1);
+                size--;
+            }
+        }
+
+        // @return the index of the first row whose id is greater than id
+        int upperBound(int[] ids, int id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[values[mid]] <= id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // For time-ordered lists: @return the index of the first row at or after (epoch, id)
+        int lowerBound(long[] epochs, int[] ids, long epoch, int id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int row = values[mid];
+                if (epochs[row] < epoch || (epochs[row] == epoch && ids[row] < id)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -2,12 +2,31 @@ package org.paul.restlearning.dao;
 
 import org.paul.restlearning.model.Message;
 import org.paul.restlearning.util.ConnectionUtil;
+import org.paul.restlearning.util.DatabaseUnavailableException;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class MessageDaoImpl implements IMessageDao{
+    // Rows read per query while streaming; each chunk takes a connection and gives it back.
+    private static final int STREAM_CHUNK_SIZE = 500;
+    // How long an insert may take between drawing its message_id and committing; see CommitHorizon.
+    public static final long DEFAULT_SYNC_COMMIT_LAG_MILLIS = 2000;
+
+    private final CommitHorizon syncHorizon;
+
+    public MessageDaoImpl() {
+        this(DEFAULT_SYNC_COMMIT_LAG_MILLIS);
+    }
+
+    // @param syncCommitLagMillis how far behind the newest committed message_id incremental sync stays
+    public MessageDaoImpl(long syncCommitLagMillis) {
+        this.syncHorizon = new CommitHorizon(syncCommitLagMillis, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public Message createMessage(Message message) {
         String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
@@ -27,25 +46,174 @@ public class MessageDaoImpl implements IMessageDao{
             rs = ps.getGeneratedKeys();
             if (rs.next()) {
                 int id = rs.getInt(1);
-                return new Message(
+                Message created = new Message(
                         id,
                         message.getPosted_by(),
                         message.getMessage_text(),
                         message.getTime_posted_epoch()
                 );
+                wrote(created);
+                return created;
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        String sql = "INSERT INTO Message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        List<Message> created = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return created;
+        }
+
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            // the whole batch commits or none of it does
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (Message message : messages) {
+                ps.setInt(1, message.getPosted_by());
+                ps.setString(2, message.getMessage_text());
+                ps.setLong(3, message.getTime_posted_epoch());
+                ps.addBatch();
+            }
+
+            ps.executeBatch();
+
+            rs = ps.getGeneratedKeys();
+            for (Message message : messages) {
+                if (!rs.next()) {
+                    throw new SQLException("Missing generated key for batched message");
+                }
+                created.add(new Message(
+                        rs.getInt(1),
+                        message.getPosted_by(),
+                        message.getMessage_text(),
+                        message.getTime_posted_epoch()
+                ));
             }
+            conn.commit();
+            for (Message message : created) wrote(message);
+            return created;
 
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
             close(rs);
             close(ps);
+            restoreAutoCommit(conn);
             close(conn);
         }
 
         return null;
     }
 
+    // Inserts rows that keep their message_id (bulk import); the whole chunk commits or none of it does.
+    // Fails if any of the ids is taken. On Postgres the primary key is (message_id, time_posted_epoch), so
+    // it wouldn't catch a taken id with another epoch; the ids are checked under a lock that holds off
+    // other inserts until the commit.
+    @Override
+    public boolean importMessages(List<Message> messages) {
+        String sql = "INSERT INTO Message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            conn.setAutoCommit(false);
+            if (isPostgres(conn)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LOCK TABLE message IN SHARE ROW EXCLUSIVE MODE");
+                }
+            }
+            Integer[] ids = new Integer[messages.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = messages.get(i).getMessage_id();
+            ps = conn.prepareStatement("SELECT message_id FROM Message WHERE message_id = ANY(?) LIMIT 1");
+            ps.setArray(1, conn.createArrayOf("integer", ids));
+            rs = ps.executeQuery();
+            if (rs.next()) {
+                return false;
+            }
+            close(rs);
+            close(ps);
+
+            ps = conn.prepareStatement(sql);
+            for (Message message : messages) {
+                ps.setInt(1, message.getMessage_id());
+                ps.setInt(2, message.getPosted_by());
+                ps.setString(3, message.getMessage_text());
+                ps.setLong(4, message.getTime_posted_epoch());
+                ps.addBatch();
+            }
+
+            ps.executeBatch();
+            conn.commit();
+            for (Message message : messages) wrote(message);
+            return true;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(ps);
+            restoreAutoCommit(conn);
+            close(conn);
+        }
+
+        return false;
+    }
+
+    // Moves the message_id sequence past the highest id, so rows imported with explicit ids don't collide with new ones.
+    // Never moves it back.
+    @Override
+    public void resyncIdSequence() {
+        Connection conn = null;
+        Statement st = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            // only ever forward: a deleted id must never be handed out again
+            conn.setAutoCommit(false);
+            st = conn.createStatement();
+            if (isPostgres(conn)) {
+                // keeps concurrent inserts from drawing ids between nextval and setval
+                st.execute("LOCK TABLE message IN SHARE ROW EXCLUSIVE MODE");
+                st.execute("SELECT setval(pg_get_serial_sequence('message', 'message_id'), GREATEST("
+                        + "nextval(pg_get_serial_sequence('message', 'message_id')), "
+                        + "COALESCE((SELECT MAX(message_id) FROM message), 0) + 1), false)");
+            } else {
+                rs = st.executeQuery("SELECT GREATEST(IDENTITY_BASE, (SELECT COALESCE(MAX(message_id), 0) + 1 FROM message)) "
+                        + "FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = 'MESSAGE' AND COLUMN_NAME = 'MESSAGE_ID'");
+                rs.next();
+                st.execute("ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + rs.getLong(1));
+            }
+            conn.commit();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(st);
+            restoreAutoCommit(conn);
+            close(conn);
+        }
+    }
+
     @Override
     public List<Message> findAllMessages() {
         String sql = "SELECT * FROM Message";
@@ -55,7 +223,7 @@ public class MessageDaoImpl implements IMessageDao{
         ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
+            conn = ConnectionUtil.getReadConnection();
             ps = conn.prepareStatement(sql);
             rs = ps.executeQuery();
 
@@ -74,6 +242,62 @@ public class MessageDaoImpl implements IMessageDao{
         return messages;
     }
 
+    @Override
+    public List<Message> findMessagesAfter(int afterMessageId, int limit) {
+        try {
+            return readMessagesAfter(afterMessageId, limit);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // Walks the table in keyset chunks, so a slow consumer (a client downloading everything) never
+    // holds a pooled connection for more than one chunk's query.
+    // @throws DatabaseUnavailableException if a chunk can't be read, so a stream is cut rather than ended early
+    @Override
+    public void forEachMessage(Consumer<Message> action) {
+        int after = 0;
+        List<Message> chunk;
+        do {
+            try {
+                chunk = readMessagesAfter(after, STREAM_CHUNK_SIZE);
+            } catch (SQLException e) {
+                throw new DatabaseUnavailableException("Message scan failed after message_id " + after, e);
+            }
+            for (Message message : chunk) {
+                action.accept(message);
+            }
+            if (!chunk.isEmpty()) after = chunk.get(chunk.size() - 1).getMessage_id();
+        } while (chunk.size() == STREAM_CHUNK_SIZE);
+    }
+
+    private List<Message> readMessagesAfter(int afterMessageId, int limit) throws SQLException {
+        String sql = "SELECT * FROM Message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+        List<Message> messages = new ArrayList<>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getReadConnection();
+            ps = conn.prepareStatement(sql);
+            ps.setInt(1, afterMessageId);
+            ps.setInt(2, limit);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(mapRowToMessage(rs));
+            }
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return messages;
+    }
+
     @Override
     public Message findMessageById(int messageId) {
         String sql = "SELECT * FROM Message WHERE message_id = ?";
@@ -82,7 +306,7 @@ public class MessageDaoImpl implements IMessageDao{
         ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
+            conn = ConnectionUtil.getReadConnection("message", messageId);
             ps = conn.prepareStatement(sql);
             ps.setInt(1, messageId);
 
@@ -102,57 +326,102 @@ public class MessageDaoImpl implements IMessageDao{
         return null;
     }
 
+    // One round trip for the whole set instead of a findMessageById per id.
     @Override
-    public Message deleteMessageById(int messageId) {
-        Message existing = findMessageById(messageId);
-        if (existing == null) {
-            return null;
+    public List<Message> findMessagesByIds(int[] messageIds) {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+        if (messageIds.length == 0) {
+            return messages;
         }
 
-        String sql = "DELETE FROM Message WHERE message_id = ?";
+        String sql = "SELECT * FROM Message WHERE message_id = ANY(?)";
+        Integer[] ids = new Integer[messageIds.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = messageIds[i];
+        }
         Connection conn = null;
         PreparedStatement ps = null;
+        ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
+            conn = recentlyWritten(messageIds) ? ConnectionUtil.getConnection() : ConnectionUtil.getReadConnection();
             ps = conn.prepareStatement(sql);
-            ps.setInt(1, messageId);
-            ps.executeUpdate();
+            ps.setArray(1, conn.createArrayOf("integer", ids));
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(mapRowToMessage(rs));
+            }
 
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            close(rs);
             close(ps);
             close(conn);
         }
 
-        return existing;
+        return messages;
     }
 
     @Override
-    public Message updateMessageText(int messageId, String newMessageText) {
-        Message existing = findMessageById(messageId);
-        if (existing == null) {
-            return null;
+    public Message deleteMessageById(int messageId) {
+        // One statement hands back the deleted row, so there's no read-then-write window.
+        // H2 has no RETURNING clause; its OLD TABLE delta query does the same thing.
+        String postgresSql = "DELETE FROM Message WHERE message_id = ? RETURNING *";
+        String h2Sql = "SELECT * FROM OLD TABLE (DELETE FROM Message WHERE message_id = ?)";
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getConnection();
+            ps = conn.prepareStatement(isPostgres(conn) ? postgresSql : h2Sql);
+            ps.setInt(1, messageId);
+
+            rs = ps.executeQuery();
+            if (rs.next()) {
+                Message deleted = mapRowToMessage(rs);
+                wrote(deleted);
+                return deleted;
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
         }
 
-        String sql = "UPDATE Message SET message_text = ? WHERE message_id = ?";
+        return null;
+    }
+
+    @Override
+    public Message updateMessageText(int messageId, String newMessageText) {
+        String postgresSql = "UPDATE Message SET message_text = ? WHERE message_id = ? RETURNING *";
+        String h2Sql = "SELECT * FROM FINAL TABLE (UPDATE Message SET message_text = ? WHERE message_id = ?)";
         Connection conn = null;
         PreparedStatement ps = null;
+        ResultSet rs = null;
 
         try {
             conn = ConnectionUtil.getConnection();
-            ps = conn.prepareStatement(sql);
+            ps = conn.prepareStatement(isPostgres(conn) ? postgresSql : h2Sql);
             ps.setString(1, newMessageText);
             ps.setInt(2, messageId);
-            ps.executeUpdate();
 
-            existing.setMessage_text(newMessageText);
-            return existing;
+            rs = ps.executeQuery();
+            if (rs.next()) {
+                Message updated = mapRowToMessage(rs);
+                wrote(updated);
+                return updated;
+            }
 
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            close(rs);
             close(ps);
             close(conn);
         }
@@ -169,7 +438,7 @@ public class MessageDaoImpl implements IMessageDao{
         ResultSet rs = null;
 
         try {
-            conn = ConnectionUtil.getConnection();
+            conn = ConnectionUtil.getReadConnection("posted_by", accountId);
             ps = conn.prepareStatement(sql);
             ps.setInt(1, accountId);
 
@@ -189,6 +458,103 @@ public class MessageDaoImpl implements IMessageDao{
         return messages;
     }
 
+    @Override
+    public List<Message> findMessagesByAccountIdBefore(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        // newest first, keyset on (time_posted_epoch, message_id); served by message_posted_by_time_idx
+        String sql = "SELECT * FROM Message WHERE posted_by = ? AND (time_posted_epoch, message_id) < (?, ?) "
+                + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+        List<Message> messages = new ArrayList<>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = ConnectionUtil.getReadConnection("posted_by", accountId);
+            ps = conn.prepareStatement(sql);
+            ps.setInt(1, accountId);
+            ps.setLong(2, beforeEpoch);
+            ps.setInt(3, beforeMessageId);
+            ps.setInt(4, limit);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(mapRowToMessage(rs));
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return messages;
+    }
+
+    // Incremental sync: messages created after sinceMessageId, oldest first. Only the filters that are set
+    // go into the WHERE clause, so rows with a NULL time_posted_epoch aren't dropped by an open range.
+    // The (posted_by, message_id) index serves one account's delta and the primary key everyone's;
+    // message_time_idx serves a narrow time window. Ids above the commit horizon are held back until
+    // the rows below them have had time to commit, since the client's cursor would pass over those.
+    @Override
+    public List<Message> findMessagesSince(int postedBy, int sinceMessageId, long sinceEpoch, long untilEpoch, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM Message WHERE message_id > ? AND message_id <= ?");
+        if (postedBy > 0) sql.append(" AND posted_by = ?");
+        if (sinceEpoch != Long.MIN_VALUE) sql.append(" AND time_posted_epoch >= ?");
+        if (untilEpoch != Long.MAX_VALUE) sql.append(" AND time_posted_epoch < ?");
+        sql.append(" ORDER BY message_id LIMIT ?");
+
+        List<Message> messages = new ArrayList<>();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            conn = postedBy > 0
+                    ? ConnectionUtil.getReadConnection("posted_by", postedBy)
+                    : ConnectionUtil.getReadConnection();
+            int horizon = syncHorizon(conn);
+            if (horizon <= sinceMessageId) return messages;
+
+            ps = conn.prepareStatement(sql.toString());
+            int i = 1;
+            ps.setInt(i++, sinceMessageId);
+            ps.setInt(i++, horizon);
+            if (postedBy > 0) ps.setInt(i++, postedBy);
+            if (sinceEpoch != Long.MIN_VALUE) ps.setLong(i++, sinceEpoch);
+            if (untilEpoch != Long.MAX_VALUE) ps.setLong(i++, untilEpoch);
+            ps.setInt(i, limit);
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                messages.add(mapRowToMessage(rs));
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            close(rs);
+            close(ps);
+            close(conn);
+        }
+
+        return messages;
+    }
+
+    // Samples the highest committed id on conn when the horizon is due one.
+    // @return the highest message_id findMessagesSince may return now
+    private int syncHorizon(Connection conn) throws SQLException {
+        long now = System.nanoTime();
+        if (syncHorizon.needsSample(now)) {
+            try (Statement statement = conn.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT MAX(message_id) FROM Message")) {
+                syncHorizon.record(now, rs.next() ? rs.getInt(1) : 0);
+            }
+        }
+        return syncHorizon.safeId(now);
+    }
+
     private Message mapRowToMessage(ResultSet rs) throws SQLException {
         return new Message(
                 rs.getInt("message_id"),
@@ -198,6 +564,38 @@ public class MessageDaoImpl implements IMessageDao{
         );
     }
 
+    // @return true if one of the messages was written too recently for a replica to be sure to have it
+    private static boolean recentlyWritten(int[] messageIds) {
+        for (int messageId : messageIds) {
+            if (ConnectionUtil.replicas().recentlyWritten("message", messageId)) return true;
+        }
+        return false;
+    }
+
+    // Reads of this message, and of its author's messages, go to the primary until replicas have caught up.
+    private static void wrote(Message message) {
+        ConnectionUtil.wrote("message", message.getMessage_id());
+        ConnectionUtil.wrote("posted_by", message.getPosted_by());
+    }
+
+    private boolean isPostgres(Connection conn) throws SQLException {
+        return "PostgreSQL".equals(conn.getMetaData().getDatabaseProductName());
+    }
+
+    // Rolls back anything left open and hands the connection back to the pool in autocommit mode.
+    private void restoreAutoCommit(Connection conn) {
+        if (conn != null) {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void close(AutoCloseable ac) {
         if (ac != null) {
             try {
@@ -0,0 +1,125 @@
+package org.paul.restlearning.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Holds the application's timers, counters and gauges and renders them in the Prometheus text
+// exposition format. Recording only touches a ConcurrentHashMap lookup and lock-free adders, so it
+// is cheap enough to run on every request and every query.
+//
+// A series is identified by its metric name plus a label string such as route="/messages",method="GET".
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Map<String, LatencyHistogram>> timers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Supplier<? extends Number>>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Supplier<? extends Number>>> counterFunctions = new ConcurrentHashMap<>();
+    private final Map<String, String> help = new ConcurrentHashMap<>();
+
+    public LatencyHistogram timer(String name, String labels) {
+        return timers.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels, k -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name, String labels) {
+        return counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(labels, k -> new LongAdder());
+    }
+
+    public void gauge(String name, String labels, Supplier<? extends Number> value) {
+        gauges.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(labels, value);
+    }
+
+    // Exposes a monotonically increasing count kept elsewhere (e.g. cache hits) as a counter.
+    public void counter(String name, String labels, Supplier<? extends Number> value) {
+        counterFunctions.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(labels, value);
+    }
+
+    public void help(String name, String text) {
+        help.put(name, text);
+    }
+
+    // Exposes a histogram that lives elsewhere (e.g. in PoolMetrics) under this registry.
+    public void register(String name, String labels, LatencyHistogram histogram) {
+        timers.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(labels, histogram);
+    }
+
+    // @return every series in Prometheus text format; timers are rendered as summaries in seconds
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        for (Map.Entry<String, Map<String, LatencyHistogram>> metric : new TreeMap<>(timers).entrySet()) {
+            String name = metric.getKey();
+            header(out, name, "summary");
+            for (Map.Entry<String, LatencyHistogram> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                String labels = series.getKey();
+                LatencyHistogram histogram = series.getValue();
+                for (double q : QUANTILES) {
+                    line(out, name, join(labels, "quantile=\"" + q + "\""), seconds(histogram.quantileNanos(q)));
+                }
+                line(out, name + "_sum", labels, seconds(histogram.sumNanos()));
+                line(out, name + "_count", labels, Long.toString(histogram.count()));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, LongAdder>> metric : new TreeMap<>(counters).entrySet()) {
+            header(out, metric.getKey(), "counter");
+            for (Map.Entry<String, LongAdder> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                line(out, metric.getKey(), series.getKey(), Long.toString(series.getValue().sum()));
+            }
+        }
+
+        functions(out, counterFunctions, "counter");
+        functions(out, gauges, "gauge");
+        return out.toString();
+    }
+
+    // Builds a label string, escaping values as the exposition format requires: label("route", "/messages")
+    public static String label(String name, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+
+    public static String join(String... labels) {
+        StringBuilder joined = new StringBuilder();
+        for (String label : labels) {
+            if (label == null || label.isEmpty()) continue;
+            if (joined.length() > 0) joined.append(',');
+            joined.append(label);
+        }
+        return joined.toString();
+    }
+
+    private void functions(StringBuilder out, Map<String, Map<String, Supplier<? extends Number>>> metrics, String type) {
+        for (Map.Entry<String, Map<String, Supplier<? extends Number>>> metric : new TreeMap<>(metrics).entrySet()) {
+            header(out, metric.getKey(), type);
+            for (Map.Entry<String, Supplier<? extends Number>> series : new TreeMap<>(metric.getValue()).entrySet()) {
+                line(out, metric.getKey(), series.getKey(), series.getValue().get().toString());
+            }
+        }
+    }
+
+    private void header(StringBuilder out, String name, String type) {
+        String text = help.get(name);
+        if (text != null) {
+            out.append("# HELP ").append(name).append(' ').append(text).append('\n');
+        }
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
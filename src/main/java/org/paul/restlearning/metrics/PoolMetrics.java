@@ -0,0 +1,78 @@
+package org.paul.restlearning.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Live figures for one connection pool: how many connections are checked out, how many callers
+// are waiting for one, how long they waited and how long each connection was held.
+public class PoolMetrics {
+    private final String name;
+    private final IntSupplier idle;
+    private final int maxTotal;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram checkoutDuration = new LatencyHistogram();
+
+    // @param name a label for this pool, e.g. "primary"
+    // @param idle reports idle connections, or -1 if the pool can't tell
+    public PoolMetrics(String name, IntSupplier idle, int maxTotal) {
+        this.name = name;
+        this.idle = idle;
+        this.maxTotal = maxTotal;
+    }
+
+    public void waitStarted() {
+        waiters.incrementAndGet();
+    }
+
+    public void waitEnded(long waitedNanos, boolean acquired) {
+        waiters.decrementAndGet();
+        waitTime.record(waitedNanos);
+        if (acquired) {
+            active.incrementAndGet();
+        } else {
+            timeouts.increment();
+        }
+    }
+
+    public void released(long heldNanos) {
+        active.decrementAndGet();
+        checkoutDuration.record(heldNanos);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int active() {
+        return active.get();
+    }
+
+    public int idle() {
+        return idle.getAsInt();
+    }
+
+    public int waiters() {
+        return waiters.get();
+    }
+
+    public int maxTotal() {
+        return maxTotal;
+    }
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    public LatencyHistogram waitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram checkoutDuration() {
+        return checkoutDuration;
+    }
+}
@@ -0,0 +1,62 @@
+package org.paul.restlearning.metrics;
+
+import io.javalin.json.JsonMapper;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.stream.Stream;
+
+// Javalin JsonMapper that times serialization (ctx.json) and deserialization (ctx.bodyAsClass)
+// separately, so JSON cost can be told apart from handler and database time.
+public class TimedJsonMapper implements JsonMapper {
+    private final JsonMapper delegate;
+    private final LatencyHistogram serialize;
+    private final LatencyHistogram deserialize;
+
+    public TimedJsonMapper(JsonMapper delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.serialize = registry.timer("json_duration_seconds", MetricsRegistry.label("operation", "serialize"));
+        this.deserialize = registry.timer("json_duration_seconds", MetricsRegistry.label("operation", "deserialize"));
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        long start = System.nanoTime();
+        try {
+            return delegate.toJsonString(obj, type);
+        } finally {
+            serialize.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        return delegate.toJsonStream(obj, type);
+    }
+
+    @Override
+    public void writeToOutputStream(Stream<?> stream, OutputStream outputStream) {
+        delegate.writeToOutputStream(stream, outputStream);
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        long start = System.nanoTime();
+        try {
+            return delegate.fromJsonString(json, targetType);
+        } finally {
+            deserialize.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        long start = System.nanoTime();
+        try {
+            return delegate.fromJsonStream(json, targetType);
+        } finally {
+            deserialize.record(System.nanoTime() - start);
+        }
+    }
+}
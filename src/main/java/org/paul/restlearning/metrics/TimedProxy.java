@@ -0,0 +1,41 @@
+package org.paul.restlearning.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+// Wraps any interface implementation (e.g. an IMessageDao) so every method call is timed into
+// `metricName{component="...",method="..."}`. The histograms are resolved once up front, so the
+// per-call overhead is two nanoTime reads and a lock-free record.
+public final class TimedProxy {
+
+    private TimedProxy() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(Class<T> type, T target, MetricsRegistry registry, String metricName, String component) {
+        Map<Method, LatencyHistogram> timers = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            String labels = MetricsRegistry.join(
+                    MetricsRegistry.label("component", component),
+                    MetricsRegistry.label("method", method.getName()));
+            timers.put(method, registry.timer(metricName, labels));
+        }
+
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            LatencyHistogram timer = timers.get(method);
+            long start = System.nanoTime();
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (timer != null) {
+                    timer.record(System.nanoTime() - start);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,136 @@
+package org.paul.restlearning.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Remembers which account ids exist (and, for a short while, which don't) so posted_by
+// validation can skip the database. Ids are kept as bits in lazily allocated 8 KB pages,
+// so ten million accounts cost a little over a megabyte. Reads and writes are lock-free.
+// Negatives come from whatever ids clients ask about, so their bitmap is capped at MAX_ABSENT_PAGES;
+// once full, ids on pages it doesn't have yet are simply not remembered until the TTL resets it.
+public class AccountExistenceIndex {
+    private static final int PAGE_BITS = 16;                    // 65,536 ids per page
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / 64;
+    private static final int PAGE_COUNT = 1 << (31 - PAGE_BITS);
+    private static final int MAX_ABSENT_PAGES = 64;             // 512 KB
+
+    private final long negativeTtlNanos;
+    private final Bitmap present = new Bitmap();
+    private final LongAdder presentCount = new LongAdder();
+
+    // Negatives go stale once someone registers elsewhere, so the whole set is dropped after the TTL.
+    private volatile Bitmap absent = new Bitmap();
+    private volatile long absentSince = System.nanoTime();
+
+    public AccountExistenceIndex(long negativeTtl, TimeUnit unit) {
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+    }
+
+    // @return TRUE if the account is known to exist, FALSE if it is known not to, null if unknown
+    public Boolean lookup(int accountId) {
+        if (accountId <= 0) return Boolean.FALSE;
+        if (present.get(accountId)) return Boolean.TRUE;
+        return currentAbsent().get(accountId) ? Boolean.FALSE : null;
+    }
+
+    public void markPresent(int accountId) {
+        if (accountId <= 0) return;
+        if (present.set(accountId)) {
+            presentCount.increment();
+        }
+        currentAbsent().clear(accountId);
+    }
+
+    public void markAbsent(int accountId) {
+        if (accountId <= 0) return;
+        currentAbsent().setWithin(accountId, MAX_ABSENT_PAGES);
+    }
+
+    // @return the number of account ids known to exist
+    public long size() {
+        return presentCount.sum();
+    }
+
+    // @return the approximate heap used by both bitmaps, in bytes
+    public long memoryBytes() {
+        return present.memoryBytes() + absent.memoryBytes();
+    }
+
+    private Bitmap currentAbsent() {
+        Bitmap current = absent;
+        long now = System.nanoTime();
+        if (now - absentSince > negativeTtlNanos) {
+            current = new Bitmap();
+            absent = current;
+            absentSince = now;
+        }
+        return current;
+    }
+
+    // A sparse, concurrent bit set over the non-negative int range.
+    private static final class Bitmap {
+        private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(PAGE_COUNT);
+        private final LongAdder allocatedPages = new LongAdder();
+
+        boolean get(int bit) {
+            AtomicLongArray page = pages.get(bit >>> PAGE_BITS);
+            if (page == null) return false;
+            return (page.get(wordIndex(bit)) & mask(bit)) != 0;
+        }
+
+        // @return true if the bit was not already set
+        boolean set(int bit) {
+            AtomicLongArray page = pageFor(bit);
+            long mask = mask(bit);
+            return (page.getAndUpdate(wordIndex(bit), word -> word | mask) & mask) == 0;
+        }
+
+        // Like set, but only allocates a page while fewer than maxPages are allocated (racing threads can
+        // overshoot by a page each).
+        void setWithin(int bit, int maxPages) {
+            AtomicLongArray page = pages.get(bit >>> PAGE_BITS);
+            if (page == null) {
+                if (allocatedPages.sum() >= maxPages) return;
+                page = pageFor(bit);
+            }
+            long mask = mask(bit);
+            page.getAndUpdate(wordIndex(bit), word -> word | mask);
+        }
+
+        void clear(int bit) {
+            AtomicLongArray page = pages.get(bit >>> PAGE_BITS);
+            if (page == null) return;
+            long mask = mask(bit);
+            page.getAndUpdate(wordIndex(bit), word -> word & ~mask);
+        }
+
+        long memoryBytes() {
+            return (long) PAGE_COUNT * Integer.BYTES + allocatedPages.sum() * WORDS_PER_PAGE * Long.BYTES;
+        }
+
+        private AtomicLongArray pageFor(int bit) {
+            int index = bit >>> PAGE_BITS;
+            AtomicLongArray page = pages.get(index);
+            if (page == null) {
+                AtomicLongArray fresh = new AtomicLongArray(WORDS_PER_PAGE);
+                if (pages.compareAndSet(index, null, fresh)) {
+                    allocatedPages.increment();
+                    page = fresh;
+                } else {
+                    page = pages.get(index);
+                }
+            }
+            return page;
+        }
+
+        private static int wordIndex(int bit) {
+            return (bit & ((1 << PAGE_BITS) - 1)) >>> 6;
+        }
+
+        private static long mask(int bit) {
+            return 1L << (bit & 63);
+        }
+    }
+}
@@ -1,13 +1,52 @@
 package org.paul.restlearning.service;
 
+import org.paul.restlearning.dao.AsyncAccountDao;
 import org.paul.restlearning.dao.IAccountDao;
+import org.paul.restlearning.dao.IAsyncAccountDao;
 import org.paul.restlearning.model.Account;
+import org.paul.restlearning.util.InvalidationBus;
+import org.paul.restlearning.util.JdbcExecutor;
+import org.paul.restlearning.util.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class AccountService {
+    private static final Logger LOG = LoggerFactory.getLogger(AccountService.class);
+
+    // How long "this account does not exist" is trusted before asking the database again.
+    private static final long NEGATIVE_TTL_SECONDS = 30;
+
+    // Plain passwords hashed at once during an export or import; well under the credential queue.
+    private static final int HASH_WINDOW = 64;
+
     private final IAccountDao accountDao;
+    private final IAsyncAccountDao asyncAccountDao;
+    private final AccountExistenceIndex existenceIndex;
+    private final CredentialService credentials;
+    private volatile InvalidationBus bus;
 
-    public AccountService(IAccountDao accountDao) {
+    // @param credentials hashes and verifies passwords; the caller owns it and closes it
+    // @param jdbc runs the queries behind the async methods; the caller owns it and closes it
+    public AccountService(IAccountDao accountDao, CredentialService credentials, JdbcExecutor jdbc) {
+        this(accountDao, new AccountExistenceIndex(NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS), credentials, jdbc);
+    }
+
+    public AccountService(IAccountDao accountDao, AccountExistenceIndex existenceIndex, CredentialService credentials,
+                          JdbcExecutor jdbc) {
         this.accountDao = accountDao;
+        this.asyncAccountDao = new AsyncAccountDao(accountDao, jdbc);
+        this.existenceIndex = existenceIndex;
+        this.credentials = credentials;
     }
 
     /**
@@ -16,45 +55,198 @@ public class AccountService {
      * - username is not blank
      * - password length >= 4
      * - username is unique
+     * The password is stored as a salted hash, computed on the credential pool once the
+     * uniqueness check on the JDBC executor has passed, so a taken name costs no hashing.
      *
      * @param newAccount account from request body (no account_id)
-     * @return persisted account with generated account_id, or null if invalid
+     * @return future for the persisted account with generated account_id, or for null if invalid
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the hashing queue is full
      */
-    public Account register(Account newAccount) {
-        if (newAccount == null) return null;
+    public CompletableFuture<Account> registerAsync(Account newAccount) {
+        if (newAccount == null) return CompletableFuture.completedFuture(null);
 
         String username = safeTrim(newAccount.getUsername());
         String password = newAccount.getPassword(); // do not trim passwords
 
-        if (username == null || username.isEmpty()) return null;
-        if (password == null || password.length() < 4) return null;
+        if (username == null || username.isEmpty()) return CompletableFuture.completedFuture(null);
+        if (password == null || password.length() < 4) return CompletableFuture.completedFuture(null);
+
+        return asyncAccountDao.findByUsername(username).thenCompose(existing -> {
+            // username must be unique
+            if (existing != null) return CompletableFuture.completedFuture(null);
 
-        // username must be unique
-        Account existing = accountDao.findByUsername(username);
-        if (existing != null) return null;
+            // persist (use trimmed username to avoid " user " duplicates)
+            return credentials.hash(password)
+                    .thenCompose(stored -> asyncAccountDao.createAccount(new Account(username, stored)))
+                    .thenApply(created -> {
+                        if (created == null) return null;
 
-        // persist (use trimmed username to avoid " user " duplicates)
-        newAccount.setUsername(username);
-        return accountDao.createAccount(newAccount);
+                        existenceIndex.markPresent(created.getAccount_id());
+                        published(created.getAccount_id());
+                        // the caller gets back what they registered with, never the stored hash
+                        return new Account(created.getAccount_id(), username, password);
+                    });
+        });
+    }
+
+    /**
+     * Bulk import of accounts that keep their account_id, e.g. from GET /export of another
+     * instance. Stored hashes are copied as they are; plain passwords are hashed first, a window
+     * at a time in parallel on the credential pool. Accounts with a blank username or no password
+     * are skipped.
+     *
+     * @param accounts accounts with account_id set
+     * @return the number imported, or -1 if the chunk could not be persisted (nothing was)
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the hashing queue is full
+     */
+    public int importAccounts(List<Account> accounts) {
+        List<Account> valid = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            String username = safeTrim(account.getUsername());
+            String password = account.getPassword();
+            if (username == null || username.isEmpty() || password == null || password.isEmpty()) continue;
+
+            valid.add(new Account(account.getAccount_id(), username, password));
+        }
+        if (valid.isEmpty()) return 0;
+
+        List<Account> hashed = new ArrayList<>(valid.size());
+        for (int from = 0; from < valid.size(); from += HASH_WINDOW) {
+            List<Account> window = valid.subList(from, Math.min(from + HASH_WINDOW, valid.size()));
+            List<CompletableFuture<String>> stored = storedPasswords(window);
+            for (int i = 0; i < window.size(); i++) {
+                Account account = window.get(i);
+                hashed.add(new Account(account.getAccount_id(), account.getUsername(), join(stored.get(i))));
+            }
+        }
+        if (!accountDao.importAccounts(hashed)) return -1;
+
+        for (Account account : hashed) {
+            existenceIndex.markPresent(account.getAccount_id());
+            published(account.getAccount_id());
+        }
+        return hashed.size();
+    }
+
+    /**
+     * Streams every account, in account_id order, with its password hash. Rows still holding a
+     * legacy plaintext password are hashed on the way out, a window at a time on the credential
+     * pool, so a plaintext password never leaves the server.
+     *
+     * @param action called once per account
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the hashing queue is full
+     */
+    public void streamAllAccounts(Consumer<Account> action) {
+        List<Account> window = new ArrayList<>(HASH_WINDOW);
+        accountDao.forEachAccount(account -> {
+            window.add(account);
+            if (window.size() == HASH_WINDOW) {
+                emitHashed(window, action);
+                window.clear();
+            }
+        });
+        emitHashed(window, action);
+    }
+
+    private void emitHashed(List<Account> window, Consumer<Account> action) {
+        List<CompletableFuture<String>> hashes = storedPasswords(window);
+        for (int i = 0; i < window.size(); i++) {
+            Account account = window.get(i);
+            action.accept(new Account(account.getAccount_id(), account.getUsername(), join(hashes.get(i))));
+        }
+    }
+
+    // Starts hashing every plain password of accounts at once; stored hashes (and nulls) pass through.
+    // @return the password to store for each account, in order
+    private List<CompletableFuture<String>> storedPasswords(List<Account> accounts) {
+        List<CompletableFuture<String>> stored = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            String password = account.getPassword();
+            stored.add(password == null || PasswordHasher.isHash(password)
+                    ? CompletableFuture.completedFuture(password)
+                    : credentials.hash(password));
+        }
+        return stored;
+    }
+
+    /**
+     * Moves the account id sequence past imported rows.
+     */
+    public void resyncIds() {
+        accountDao.resyncIdSequence();
+    }
+
+    /**
+     * Blocking form of registerAsync.
+     *
+     * @param newAccount account from request body (no account_id)
+     * @return persisted account with generated account_id, or null if invalid
+     */
+    public Account register(Account newAccount) {
+        return join(registerAsync(newAccount));
     }
 
     /**
      * Requirement #2: Login
-     * Successful iff username/password match an existing account.
+     * Successful iff username/password match an existing account. A login that succeeded
+     * moments ago with the same credentials is answered from the credential cache.
      *
      * @param credentials account from request body (no account_id)
-     * @return account (with account_id) if valid, otherwise null
+     * @return future for the account (with account_id) if valid, otherwise for null
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the hashing queue is full
      */
-    public Account login(Account credentials) {
-        if (credentials == null) return null;
+    public CompletableFuture<Account> loginAsync(Account credentials) {
+        if (credentials == null) return CompletableFuture.completedFuture(null);
 
         String username = safeTrim(credentials.getUsername());
         String password = credentials.getPassword();
 
-        if (username == null || username.isEmpty()) return null;
-        if (password == null) return null;
+        if (username == null || username.isEmpty()) return CompletableFuture.completedFuture(null);
+        if (password == null) return CompletableFuture.completedFuture(null);
+
+        Account cached = this.credentials.cachedLogin(username, password);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(new Account(cached.getAccount_id(), username, password));
+        }
+
+        return asyncAccountDao.findByUsername(username).thenCompose(stored -> {
+            if (stored == null) return CompletableFuture.completedFuture(null);
+
+            return this.credentials.verify(password, stored.getPassword()).thenApply(matches -> {
+                if (!matches) return null;
 
-        return accountDao.findByUsernameAndPassword(username, password);
+                rehashLegacy(stored, password);
+                this.credentials.rememberLogin(username, password, new Account(stored.getAccount_id(), username, null));
+                return new Account(stored.getAccount_id(), username, password);
+            });
+        });
+    }
+
+    // Rows from before hashing hold the plain password; once one has matched, a hash replaces it in the
+    // background. The update only lands while the row still holds that plain password, and a failure
+    // (or a full hashing queue) leaves the row to be upgraded on a later login.
+    private void rehashLegacy(Account stored, String password) {
+        if (PasswordHasher.isHash(stored.getPassword())) return;
+        try {
+            credentials.hash(password)
+                    .thenCompose(hash -> asyncAccountDao.replacePassword(stored.getAccount_id(), stored.getPassword(), hash))
+                    .exceptionally(e -> {
+                        LOG.warn("Could not rehash the legacy password of account {}", stored.getAccount_id(), e);
+                        return false;
+                    });
+        } catch (TooManyRequestsException e) {
+            // upgraded on a later login
+        }
+    }
+
+    /**
+     * Blocking form of loginAsync.
+     *
+     * @param credentials account from request body (no account_id)
+     * @return account (with account_id) if valid, otherwise null
+     */
+    public Account login(Account credentials) {
+        return join(loginAsync(credentials));
     }
 
     /**
@@ -62,9 +254,138 @@ public class AccountService {
      *
      * @param accountId posted_by value
      * @return true if account exists
+     * @throws org.paul.restlearning.util.DatabaseUnavailableException if the lookup fails; nothing is recorded
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the JDBC executor's queue is full
      */
     public boolean accountExists(int accountId) {
-        return accountDao.findById(accountId) != null;
+        return join(accountExistsAsync(accountId));
+    }
+
+    /**
+     * Async form of accountExists; answered without a query when the existence index knows the id.
+     *
+     * @param accountId posted_by value
+     * @return future that is true if the account exists
+     */
+    public CompletableFuture<Boolean> accountExistsAsync(int accountId) {
+        Boolean known = existenceIndex.lookup(accountId);
+        if (known != null) return CompletableFuture.completedFuture(known);
+
+        return asyncAccountDao.findById(accountId).thenApply(account -> remember(accountId, account != null));
+    }
+
+    /**
+     * Batch form of accountExists: ids the existence index doesn't know yet are checked with a single query.
+     *
+     * @param accountIds posted_by values
+     * @return the subset of accountIds that refer to real accounts
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the JDBC executor's queue is full
+     */
+    public Set<Integer> existingAccountIds(Collection<Integer> accountIds) {
+        return join(existingAccountIdsAsync(accountIds));
+    }
+
+    /**
+     * Async form of existingAccountIds.
+     *
+     * @param accountIds posted_by values
+     * @return future for the subset of accountIds that refer to real accounts
+     */
+    public CompletableFuture<Set<Integer>> existingAccountIdsAsync(Collection<Integer> accountIds) {
+        Set<Integer> existing = new HashSet<>();
+        Set<Integer> unknown = new HashSet<>();
+        for (Integer accountId : accountIds) {
+            Boolean known = existenceIndex.lookup(accountId);
+            if (known == null) {
+                unknown.add(accountId);
+            } else if (known) {
+                existing.add(accountId);
+            }
+        }
+        if (unknown.isEmpty()) return CompletableFuture.completedFuture(existing);
+
+        return asyncAccountDao.findExistingIds(unknown).thenApply(found -> remember(unknown, found, existing));
+    }
+
+    /**
+     * Loads every account id into the existence index with a single streaming scan, so that
+     * posted_by checks don't need the database once the service is up.
+     */
+    public void warmUpExistenceIndex() {
+        long start = System.nanoTime();
+        accountDao.forEachAccountId(existenceIndex::markPresent);
+        LOG.info("Account existence index warmed with {} ids in {} ms, using {} KB",
+                existenceIndex.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                existenceIndex.memoryBytes() / 1024);
+    }
+
+    /**
+     * Announces every account this service creates to the other nodes through bus, so that a
+     * node that recently saw the id as unknown accepts it right away.
+     *
+     * @param bus where to publish; changes made before this call are not announced
+     */
+    public void publishTo(InvalidationBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Applies account changes made by other nodes to the existence index.
+     *
+     * @param events events from the bus; other entities are ignored
+     */
+    public void applyRemoteChanges(List<InvalidationBus.Event> events) {
+        for (InvalidationBus.Event event : events) {
+            if (event.getEntity() == InvalidationBus.Entity.ACCOUNT && event.getChange() != InvalidationBus.Change.DELETED) {
+                existenceIndex.markPresent(event.getId());
+            }
+        }
+    }
+
+    // @return the index behind accountExists, exposed for its size and memory figures
+    public AccountExistenceIndex existenceIndex() {
+        return existenceIndex;
+    }
+
+    // @return the credential pool and login cache, exposed for their queue and hit figures
+    public CredentialService credentials() {
+        return credentials;
+    }
+
+    private void published(int accountId) {
+        InvalidationBus target = bus;
+        if (target != null) {
+            target.publish(InvalidationBus.Event.account(InvalidationBus.Change.CREATED, accountId));
+        }
+    }
+
+    // Only ever given the answer of a lookup that succeeded: a failed one throws out of the DAO before
+    // getting here, so an outage is never recorded as a missing account.
+    private boolean remember(int accountId, boolean exists) {
+        if (exists) {
+            existenceIndex.markPresent(accountId);
+        } else {
+            existenceIndex.markAbsent(accountId);
+        }
+        return exists;
+    }
+
+    // Records what the database said about the unknown ids. @return existing, plus the unknown ids that were found
+    private Set<Integer> remember(Set<Integer> unknown, Set<Integer> found, Set<Integer> existing) {
+        for (Integer accountId : unknown) {
+            if (remember(accountId, found.contains(accountId))) existing.add(accountId);
+        }
+        return existing;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
     }
 
     private String safeTrim(String s) {
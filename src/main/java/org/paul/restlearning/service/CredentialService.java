@@ -0,0 +1,118 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.model.Account;
+import org.paul.restlearning.util.LruCache;
+import org.paul.restlearning.util.TooManyRequestsException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Runs password hashing and verification on a small, dedicated pool sized to the CPU count, so a
+// login storm saturates those threads rather than the web server's. The pool's queue is bounded:
+// once it is full, new work is refused with TooManyRequestsException instead of queueing without limit.
+//
+// Successful logins are remembered for a short while, keyed by a keyed hash (HMAC with a per-process
+// secret) of username and password, so repeat logins skip the expensive verification.
+public class CredentialService implements AutoCloseable {
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor executor;
+    private final LruCache<String, Account> verified;
+    private final SecretKeySpec cacheKey;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public CredentialService(PasswordHasher hasher, int threads, int queueCapacity,
+                             int cacheEntries, long cacheTtl, TimeUnit unit) {
+        this.hasher = hasher;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "credential-hasher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.verified = new LruCache<>(cacheEntries, cacheTtl, unit);
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.cacheKey = new SecretKeySpec(secret, "HmacSHA256");
+    }
+
+    // @return a future for the stored form of the password
+    // @throws TooManyRequestsException if the hashing queue is full
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> hasher.hash(password));
+    }
+
+    // @return a future that is true if the password matches the stored hash
+    // @throws TooManyRequestsException if the hashing queue is full
+    public CompletableFuture<Boolean> verify(String password, String storedHash) {
+        return submit(() -> hasher.verify(password, storedHash));
+    }
+
+    // @return the account from a recent successful login with exactly these credentials, or null
+    public Account cachedLogin(String username, String password) {
+        return verified.get(cacheKey(username, password));
+    }
+
+    public void rememberLogin(String username, String password, Account account) {
+        verified.put(cacheKey(username, password), account);
+    }
+
+    public LruCache<String, Account> loginCache() {
+        return verified;
+    }
+
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    public int active() {
+        return executor.getActiveCount();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequestsException("Password hashing queue is full", e);
+        }
+    }
+
+    private String cacheKey(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cacheKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.model.Message;
+
+import java.util.List;
+
+// Notified by MessageService after a message change has been persisted, so in-memory views
+// of the messages (timelines, indexes, caches) can follow along without re-reading the database.
+public interface MessageChangeListener {
+    void onCreated(Message message);
+
+    void onUpdated(Message message);
+
+    void onDeleted(Message message);
+
+    // A bulk import created all of these at once. By default each one is reported as created;
+    // a listener for which thousands of single events are worse than one summary can override it.
+    default void onImported(List<Message> messages) {
+        for (Message message : messages) onCreated(message);
+    }
+}
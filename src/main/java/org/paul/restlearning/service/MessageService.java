@@ -1,17 +1,122 @@
 package org.paul.restlearning.service;
 
+import org.paul.restlearning.dao.AsyncMessageDao;
+import org.paul.restlearning.dao.IAsyncMessageDao;
 import org.paul.restlearning.dao.IMessageDao;
 import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.InvalidationBus;
+import org.paul.restlearning.util.JdbcExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class MessageService {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageService.class);
+
+    // Upper bound on a single keyset page, so one request can never pull the whole table.
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Upper bound on a single ingestion batch, so one request can't hold a connection for too long.
+    public static final int MAX_BATCH_SIZE = 1000;
+
     private final IMessageDao messageDao;
+    private final IAsyncMessageDao asyncMessageDao;
+    private final JdbcExecutor jdbc;
     private final AccountService accountService;
+    private final TimelineStore timelines;
+    private final WriteBehindIngestor ingestor;
+    private final List<MessageChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile InvalidationBus bus;
+
+    // @param jdbc runs the queries behind the async methods; the caller owns it and closes it
+    public MessageService(IMessageDao messageDao, AccountService accountService, JdbcExecutor jdbc) {
+        this(messageDao, accountService, new TimelineStore(messageDao, 50, 10_000, 10, TimeUnit.MINUTES), null, jdbc);
+    }
 
-    public MessageService(IMessageDao messageDao, AccountService accountService) {
+    // @param ingestor if not null, single-message creation is group-committed through it
+    // @param jdbc runs the queries behind the async methods; the caller owns it and closes it
+    public MessageService(IMessageDao messageDao, AccountService accountService, TimelineStore timelines,
+                          WriteBehindIngestor ingestor, JdbcExecutor jdbc) {
         this.messageDao = messageDao;
+        this.asyncMessageDao = new AsyncMessageDao(messageDao, jdbc);
+        this.jdbc = jdbc;
         this.accountService = accountService;
+        this.timelines = timelines;
+        this.ingestor = ingestor;
+        addListener(timelines);
+    }
+
+    /**
+     * Registers a listener that is told about every message this service creates, updates or deletes.
+     *
+     * @param listener called after the change has been persisted
+     */
+    public void addListener(MessageChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Publishes every change this service makes to the other nodes through bus. Listeners here
+     * learn about other nodes' changes through applyRemoteChanges.
+     *
+     * @param bus where to publish; changes made before this call are not announced
+     */
+    public void publishTo(InvalidationBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Applies message changes made by other nodes. Each changed message is re-read and
+     * listeners are told as if the change had been made here; a message that is gone
+     * by the time it is read is reported deleted. Nothing is published back to the bus.
+     * Callers must drop any DAO-level cache entries for the messages first, or the re-read
+     * may return what was cached.
+     *
+     * @param events events from the bus; other entities are ignored
+     */
+    public void applyRemoteChanges(List<InvalidationBus.Event> events) {
+        for (InvalidationBus.Event event : events) {
+            if (event.getEntity() != InvalidationBus.Entity.MESSAGE) continue;
+
+            Message message = event.getChange() == InvalidationBus.Change.DELETED
+                    ? null
+                    : messageDao.findMessageById(event.getId());
+            if (message == null) {
+                // all the listeners need of a deleted message is its id and author
+                Message gone = new Message(event.getId(), event.getOwnerId(), null, 0);
+                for (MessageChangeListener listener : listeners) listener.onDeleted(gone);
+            } else if (event.getChange() == InvalidationBus.Change.CREATED) {
+                for (MessageChangeListener listener : listeners) listener.onCreated(message);
+            } else {
+                for (MessageChangeListener listener : listeners) listener.onUpdated(message);
+            }
+        }
+    }
+
+    /**
+     * Loads every stored message into the search index with one streaming scan. Changes made
+     * through this service afterwards reach the index as change events.
+     *
+     * @param index the index to rebuild; it should also be registered with addListener
+     */
+    public void rebuildSearchIndex(SearchIndex index) {
+        long start = System.nanoTime();
+        int indexed = index.rebuild(messageDao);
+        LOG.info("Search index rebuilt with {} messages and {} terms in {} ms, using {} KB",
+                indexed, index.terms(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                index.memoryBytes() / 1024);
     }
 
     /**
@@ -25,16 +130,131 @@ public class MessageService {
      * @return persisted message or null if invalid
      */
     public Message createMessage(Message message) {
-        if (message == null) return null;
+        return join(createMessageAsync(message));
+    }
 
-        String text = safeTrim(message.getMessage_text());
-        if (text == null || text.isEmpty() || text.length() > 255) return null;
+    /**
+     * Async form of createMessage. The posted_by check and the insert run on the JDBC executor.
+     * With write-behind enabled the message is instead queued and committed together with
+     * whatever else arrives in the same linger window; the future completes only once that
+     * commit has happened.
+     *
+     * @param message incoming message (no message_id)
+     * @return future of the persisted message, or of null if invalid
+     * @throws org.paul.restlearning.util.TooManyRequestsException if the write-behind queue is full
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message) {
+        if (message == null) return CompletableFuture.completedFuture(null);
 
-        int postedBy = message.getPosted_by();
-        if (!accountService.accountExists(postedBy)) return null;
+        String text = safeTrim(message.getMessage_text());
+        if (text == null || text.isEmpty() || text.length() > 255) return CompletableFuture.completedFuture(null);
 
         message.setMessage_text(text);
-        return messageDao.createMessage(message);
+        return accountService.accountExistsAsync(message.getPosted_by()).thenCompose(exists -> {
+            if (!exists) return CompletableFuture.completedFuture(null);
+
+            CompletableFuture<Message> persisted = ingestor == null
+                    ? asyncMessageDao.createMessage(message)
+                    : ingestor.submit(message);
+            return persisted.thenApply(this::created);
+        });
+    }
+
+    /**
+     * Batch form of createMessage. Each message is validated with the same rules as
+     * createMessage; every posted_by is checked in one query and the valid messages are
+     * inserted together in a single transaction.
+     *
+     * @param messages incoming messages (no message_id), at most MAX_BATCH_SIZE
+     * @return one entry per input, in order: the persisted message, or null if that message was invalid.
+     * Returns null if the batch is empty, too large, or could not be persisted.
+     */
+    public List<Message> createMessages(List<Message> messages) {
+        return join(createMessagesAsync(messages));
+    }
+
+    /**
+     * Async form of createMessages: the posted_by query and then the insert run on the JDBC executor.
+     *
+     * @param messages incoming messages (no message_id), at most MAX_BATCH_SIZE
+     * @return future of one entry per input, or of null as for createMessages
+     */
+    public CompletableFuture<List<Message>> createMessagesAsync(List<Message> messages) {
+        if (messages == null || messages.isEmpty() || messages.size() > MAX_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Set<Integer> postedBy = new HashSet<>();
+        for (Message message : messages) {
+            if (message != null) postedBy.add(message.getPosted_by());
+        }
+        return accountService.existingAccountIdsAsync(postedBy)
+                .thenCompose(existingAccounts -> insertValid(messages, existingAccounts));
+    }
+
+    private CompletableFuture<List<Message>> insertValid(List<Message> messages, Set<Integer> existingAccounts) {
+        List<Message> valid = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message == null) continue;
+            String text = safeTrim(message.getMessage_text());
+            if (text == null || text.isEmpty() || text.length() > 255) continue;
+            if (!existingAccounts.contains(message.getPosted_by())) continue;
+
+            message.setMessage_text(text);
+            valid.add(message);
+        }
+
+        return asyncMessageDao.createMessages(valid).thenApply(created -> {
+            if (created == null) return null;
+            for (Message message : created) {
+                for (MessageChangeListener listener : listeners) listener.onCreated(message);
+                publish(InvalidationBus.Change.CREATED, message);
+            }
+
+            // line the generated rows back up with the request, leaving rejected slots empty
+            List<Message> results = new ArrayList<>(messages.size());
+            int next = 0;
+            for (Message message : messages) {
+                if (next < valid.size() && valid.get(next) == message) {
+                    results.add(created.get(next++));
+                } else {
+                    results.add(null);
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Bulk import of messages that keep their message_id, e.g. from GET /export of another
+     * instance. Text is validated as in createMessage; posted_by is left to the foreign key,
+     * which fails the whole chunk. Listeners are told about the chunk through onImported.
+     *
+     * @param messages messages with message_id set
+     * @return the number imported, or -1 if the chunk could not be persisted (nothing was)
+     */
+    public int importMessages(List<Message> messages) {
+        List<Message> valid = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String text = safeTrim(message.getMessage_text());
+            if (text == null || text.isEmpty() || text.length() > 255) continue;
+
+            message.setMessage_text(text);
+            valid.add(message);
+        }
+        if (valid.isEmpty()) return 0;
+        if (!messageDao.importMessages(valid)) return -1;
+
+        for (MessageChangeListener listener : listeners) listener.onImported(valid);
+        for (Message message : valid) publish(InvalidationBus.Change.CREATED, message);
+        return valid.size();
+    }
+
+    /**
+     * Moves the message id sequence past imported rows.
+     */
+    public void resyncIds() {
+        messageDao.resyncIdSequence();
     }
 
     /**
@@ -46,6 +266,40 @@ public class MessageService {
         return messageDao.findAllMessages();
     }
 
+    /**
+     * Keyset page of messages ordered by message_id.
+     *
+     * @param afterMessageId cursor; only messages with a greater id are returned (0 for the first page)
+     * @param limit requested page size, clamped to 1..MAX_PAGE_SIZE
+     * @return up to limit messages (empty if none)
+     */
+    public List<Message> getMessagesPage(int afterMessageId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return messageDao.findMessagesAfter(Math.max(afterMessageId, 0), pageSize);
+    }
+
+    /**
+     * Async form of getMessagesPage.
+     *
+     * @param afterMessageId cursor; only messages with a greater id are returned (0 for the first page)
+     * @param limit requested page size, clamped to 1..MAX_PAGE_SIZE
+     * @return future of up to limit messages (empty if none)
+     */
+    public CompletableFuture<List<Message>> getMessagesPageAsync(int afterMessageId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return asyncMessageDao.findMessagesAfter(Math.max(afterMessageId, 0), pageSize);
+    }
+
+    /**
+     * Streams every message, in message_id order, to the given action without
+     * materializing the full list.
+     *
+     * @param action called once per message
+     */
+    public void streamAllMessages(Consumer<Message> action) {
+        messageDao.forEachMessage(action);
+    }
+
     /**
      * Requirement #5: Retrieve message by id
      *
@@ -56,6 +310,37 @@ public class MessageService {
         return messageDao.findMessageById(messageId);
     }
 
+    /**
+     * Async form of getMessageById.
+     *
+     * @param messageId id
+     * @return future of the message, or of null if not found
+     */
+    public CompletableFuture<Message> getMessageByIdAsync(int messageId) {
+        return asyncMessageDao.findMessageById(messageId);
+    }
+
+    /**
+     * Looks up several messages, e.g. a page of search hits. Cached messages are served from
+     * memory and the rest are read with a single query.
+     *
+     * @param messageIds ids in the order wanted
+     * @return the messages that still exist, in the given order
+     */
+    public List<Message> getMessagesByIds(int[] messageIds) {
+        return inOrder(messageIds, messageDao.findMessagesByIds(messageIds));
+    }
+
+    /**
+     * Async form of getMessagesByIds: one task on the JDBC pool, whatever the number of ids.
+     *
+     * @param messageIds ids in the order wanted
+     * @return future of the messages that still exist, in the given order
+     */
+    public CompletableFuture<List<Message>> getMessagesByIdsAsync(int[] messageIds) {
+        return asyncMessageDao.findMessagesByIds(messageIds).thenApply(found -> inOrder(messageIds, found));
+    }
+
     /**
      * Requirement #6: Delete message by id
      *
@@ -63,7 +348,17 @@ public class MessageService {
      * @return deleted message or null if not found
      */
     public Message deleteMessage(int messageId) {
-        return messageDao.deleteMessageById(messageId);
+        return deleted(messageDao.deleteMessageById(messageId));
+    }
+
+    /**
+     * Async form of deleteMessage.
+     *
+     * @param messageId id
+     * @return future of the deleted message, or of null if not found
+     */
+    public CompletableFuture<Message> deleteMessageAsync(int messageId) {
+        return asyncMessageDao.deleteMessageById(messageId).thenApply(this::deleted);
     }
 
     /**
@@ -81,7 +376,21 @@ public class MessageService {
         String text = safeTrim(newMessageText);
         if (text == null || text.isEmpty() || text.length() > 255) return null;
 
-        return messageDao.updateMessageText(messageId, text);
+        return updated(messageDao.updateMessageText(messageId, text));
+    }
+
+    /**
+     * Async form of updateMessageText.
+     *
+     * @param messageId id
+     * @param newMessageText new text
+     * @return future of the updated message, or of null if invalid
+     */
+    public CompletableFuture<Message> updateMessageTextAsync(int messageId, String newMessageText) {
+        String text = safeTrim(newMessageText);
+        if (text == null || text.isEmpty() || text.length() > 255) return CompletableFuture.completedFuture(null);
+
+        return asyncMessageDao.updateMessageText(messageId, text).thenApply(this::updated);
     }
 
     /**
@@ -94,6 +403,123 @@ public class MessageService {
         return messageDao.findMessagesByAccountId(accountId);
     }
 
+    /**
+     * Async form of getMessagesByAccountId.
+     *
+     * @param accountId user id
+     * @return future of the list of messages (empty if none)
+     */
+    public CompletableFuture<List<Message>> getMessagesByAccountIdAsync(int accountId) {
+        return asyncMessageDao.findMessagesByAccountId(accountId);
+    }
+
+    /**
+     * Keyset page of a user's messages, newest first. Recent pages come from the in-memory
+     * timeline; older ones from an indexed query.
+     *
+     * @param accountId user id
+     * @param beforeEpoch cursor: only messages older than (beforeEpoch, beforeMessageId) are returned
+     * @param beforeMessageId cursor tie-breaker for messages posted in the same second
+     * @param limit requested page size, clamped to 1..MAX_PAGE_SIZE
+     * @return up to limit messages (empty if none)
+     */
+    public List<Message> getMessagesByAccountIdPage(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        return timelines.page(accountId, beforeEpoch, beforeMessageId, pageSize);
+    }
+
+    /**
+     * Async form of getMessagesByAccountIdPage. A page inside the in-memory timeline is returned
+     * at once; only pages that need the database go to the JDBC executor.
+     *
+     * @param accountId user id
+     * @param beforeEpoch cursor: only messages older than (beforeEpoch, beforeMessageId) are returned
+     * @param beforeMessageId cursor tie-breaker for messages posted in the same second
+     * @param limit requested page size, clamped to 1..MAX_PAGE_SIZE
+     * @return future of up to limit messages (empty if none)
+     */
+    public CompletableFuture<List<Message>> getMessagesByAccountIdPageAsync(int accountId, long beforeEpoch,
+                                                                           int beforeMessageId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<Message> cached = timelines.cachedPage(accountId, beforeEpoch, beforeMessageId, pageSize);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        return jdbc.supply(() -> timelines.page(accountId, beforeEpoch, beforeMessageId, pageSize));
+    }
+
+    /**
+     * Incremental sync: messages created after a cursor, oldest first, optionally limited to one
+     * account and to a time_posted_epoch range. Only new messages are returned; the cost is the
+     * size of the delta, not of the history.
+     *
+     * @param accountId only this account's messages, or 0 for everyone's
+     * @param sinceMessageId cursor; only messages with a greater id are returned (0 for all)
+     * @param sinceEpoch lower bound on time_posted_epoch, inclusive (Long.MIN_VALUE for none)
+     * @param untilEpoch upper bound on time_posted_epoch, exclusive (Long.MAX_VALUE for none)
+     * @param limit requested page size, clamped to 1..MAX_PAGE_SIZE
+     * @return future of up to limit messages in message_id order (empty if none)
+     */
+    public CompletableFuture<List<Message>> getMessagesSinceAsync(int accountId, int sinceMessageId,
+                                                                 long sinceEpoch, long untilEpoch, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        if (sinceEpoch >= untilEpoch) return CompletableFuture.completedFuture(new ArrayList<>());
+
+        return asyncMessageDao.findMessagesSince(Math.max(accountId, 0), Math.max(sinceMessageId, 0),
+                sinceEpoch, untilEpoch, pageSize);
+    }
+
+    // @return found arranged in the order of messageIds
+    private static List<Message> inOrder(int[] messageIds, List<Message> found) {
+        Map<Integer, Message> byId = new HashMap<>();
+        for (Message message : found) byId.put(message.getMessage_id(), message);
+        List<Message> messages = new ArrayList<>(found.size());
+        for (int messageId : messageIds) {
+            Message message = byId.get(messageId);
+            if (message != null) messages.add(message);
+        }
+        return messages;
+    }
+
+    private Message created(Message created) {
+        if (created != null) {
+            for (MessageChangeListener listener : listeners) listener.onCreated(created);
+            publish(InvalidationBus.Change.CREATED, created);
+        }
+        return created;
+    }
+
+    private Message updated(Message updated) {
+        if (updated != null) {
+            for (MessageChangeListener listener : listeners) listener.onUpdated(updated);
+            publish(InvalidationBus.Change.UPDATED, updated);
+        }
+        return updated;
+    }
+
+    private Message deleted(Message deleted) {
+        if (deleted != null) {
+            for (MessageChangeListener listener : listeners) listener.onDeleted(deleted);
+            publish(InvalidationBus.Change.DELETED, deleted);
+        }
+        return deleted;
+    }
+
+    private void publish(InvalidationBus.Change change, Message message) {
+        InvalidationBus target = bus;
+        if (target != null) {
+            target.publish(InvalidationBus.Event.message(change, message.getMessage_id(), message.getPosted_by()));
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
     private String safeTrim(String s) {
         return s == null ? null : s.trim();
     }
@@ -0,0 +1,104 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.model.Message;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Version stamps for conditional GETs of messages and account timelines, bumped by MessageService's
+// change events. A handler can compare a client's If-None-Match against the current stamp before
+// touching the database at all.
+//
+// Stamps live in fixed-size arrays indexed by a hash of the id, so memory stays constant however many
+// messages change; two ids sharing a slot only cost a spurious 200, never a wrong 304. A stamp is the
+// time of the slot's last change in milliseconds (strictly increasing), starting at process start, so
+// it doubles as Last-Modified and tags issued before a restart never match after it.
+public class ResourceVersions implements MessageChangeListener {
+    private final AtomicLongArray messageStamps;
+    private final AtomicLongArray accountStamps;
+    private final int mask;
+
+    // @param slots per resource kind, rounded up to a power of two
+    public ResourceVersions(int slots) {
+        int size = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        this.mask = size - 1;
+        this.messageStamps = new AtomicLongArray(size);
+        this.accountStamps = new AtomicLongArray(size);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            messageStamps.set(i, start);
+            accountStamps.set(i, start);
+        }
+    }
+
+    // @return the current stamp of a single message
+    public long messageStamp(int messageId) {
+        return messageStamps.get(slot(messageId));
+    }
+
+    // @return the current stamp of every listing of an account's messages
+    public long accountStamp(int accountId) {
+        return accountStamps.get(slot(accountId));
+    }
+
+    // @return a strong entity tag for a resource at the given stamp, e.g. "m42-lzx1k2a"
+    public static String etag(String kind, int id, long stamp) {
+        return "\"" + kind + id + "-" + Long.toString(stamp, 36) + "\"";
+    }
+
+    // @param ifNoneMatch the request header, possibly a comma-separated list or *
+    // @return true if the header names the given tag (weak comparison, as RFC 9110 asks for If-None-Match)
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) return true;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onCreated(Message message) {
+        bump(message);
+    }
+
+    @Override
+    public void onUpdated(Message message) {
+        bump(message);
+    }
+
+    @Override
+    public void onDeleted(Message message) {
+        bump(message);
+    }
+
+    // Marks a message and its author's listings as changed, e.g. after a change made elsewhere.
+    public void bump(Message message) {
+        bump(messageStamps, message.getMessage_id());
+        bump(accountStamps, message.getPosted_by());
+    }
+
+    // Marks every resource as changed.
+    public void bumpAll() {
+        for (int i = 0; i <= mask; i++) {
+            bumpSlot(messageStamps, i);
+            bumpSlot(accountStamps, i);
+        }
+    }
+
+    private void bump(AtomicLongArray stamps, int id) {
+        bumpSlot(stamps, slot(id));
+    }
+
+    private static void bumpSlot(AtomicLongArray stamps, int slot) {
+        long now = System.currentTimeMillis();
+        stamps.updateAndGet(slot, previous -> Math.max(previous + 1, now));
+    }
+
+    private int slot(int id) {
+        int h = id * 0x9E3779B9;  // spread sequential ids across the table
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
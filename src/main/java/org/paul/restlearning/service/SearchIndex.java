@@ -0,0 +1,430 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over message_text for GET /messages/search.
+// Each term maps to a posting list of (message_id, term frequency) held in primitive int arrays
+// sorted by id; each indexed message remembers its term ids so updates and deletes can unindex it.
+// Results are ranked with BM25, newest first among equal scores.
+//
+// Query syntax: whitespace-separated terms must all match (AND); terms joined by OR form a group
+// where any may match; a trailing * matches every term with that prefix. "java OR kotlin spring*"
+// means (java or kotlin) and (any term starting with spring).
+//
+// Kept current by MessageService's change events and rebuilt from the database by a streaming scan.
+// A rebuild scans into a fresh index without holding the lock, so searches and writes carry on against
+// the old one; changes that arrive meanwhile are recorded, replayed onto the fresh index, and it is
+// swapped in under a short write lock.
+public class SearchIndex implements MessageChangeListener {
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_PREFIX_EXPANSION = 256;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebuildLock = new Object();
+    private TreeMap<String, Integer> termIds = new TreeMap<>();
+    private List<String> terms = new ArrayList<>();
+    private List<PostingList> postings = new ArrayList<>();
+    private Map<Integer, int[]> documents = new HashMap<>();
+    private long totalLength;
+    // while a rebuild scans: the latest change per message_id since it started, null for a delete
+    private Map<Integer, Message> pending;
+
+    // A page of ranked results. @param total how many messages match in all
+    public static final class Hits {
+        private final int[] ids;
+        private final int total;
+
+        Hits(int[] ids, int total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        public int[] ids() {
+            return ids;
+        }
+
+        public int total() {
+            return total;
+        }
+    }
+
+    // Replaces the index contents with every message currently in the database.
+    // @return the number of messages indexed
+    public int rebuild(IMessageDao messageDao) {
+        synchronized (rebuildLock) {
+            setPending(new HashMap<>());
+            try {
+                SearchIndex fresh = new SearchIndex();
+                messageDao.forEachMessage(fresh::add);
+
+                lock.writeLock().lock();
+                try {
+                    for (Map.Entry<Integer, Message> change : pending.entrySet()) {
+                        fresh.remove(change.getKey());
+                        if (change.getValue() != null) fresh.add(change.getValue());
+                    }
+                    termIds = fresh.termIds;
+                    terms = fresh.terms;
+                    postings = fresh.postings;
+                    documents = fresh.documents;
+                    totalLength = fresh.totalLength;
+                    return documents.size();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                setPending(null);
+            }
+        }
+    }
+
+    // @return the page of matching message ids, best first, starting at offset
+    public Hits search(String query, int offset, int limit) {
+        List<List<String>> clauses = parse(query);
+        if (clauses.isEmpty()) return new Hits(new int[0], 0);
+
+        lock.readLock().lock();
+        try {
+            // each clause is an OR of term ids; a message must match every clause
+            List<int[]> clauseTerms = new ArrayList<>(clauses.size());
+            for (List<String> clause : clauses) {
+                int[] ids = resolve(clause);
+                if (ids.length == 0) return new Hits(new int[0], 0);
+                clauseTerms.add(ids);
+            }
+            clauseTerms.sort((a, b) -> Long.compare(postingCount(a), postingCount(b)));
+
+            int[] candidates = union(clauseTerms.get(0));
+            for (int i = 1; i < clauseTerms.size() && candidates.length > 0; i++) {
+                candidates = intersect(candidates, union(clauseTerms.get(i)));
+            }
+            return rank(candidates, clauseTerms, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCreated(Message message) {
+        lock.writeLock().lock();
+        try {
+            remove(message.getMessage_id());
+            add(message);
+            if (pending != null) {
+                pending.put(message.getMessage_id(), new Message(message.getMessage_id(), message.getPosted_by(),
+                        message.getMessage_text(), message.getTime_posted_epoch()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onUpdated(Message message) {
+        onCreated(message);
+    }
+
+    @Override
+    public void onDeleted(Message message) {
+        lock.writeLock().lock();
+        try {
+            remove(message.getMessage_id());
+            if (pending != null) pending.put(message.getMessage_id(), null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int documents() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int terms() {
+        lock.readLock().lock();
+        try {
+            return termIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // @return an estimate of the heap held by the index: posting arrays, term dictionary and per-message term lists
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (PostingList list : postings) {
+                if (list != null) bytes += 32 + 2 * (16 + 4L * list.ids.length);
+            }
+            for (String term : termIds.keySet()) {
+                bytes += 40 + 2L * term.length()   // the String
+                        + 40 + 16;                 // TreeMap entry and boxed id
+            }
+            for (int[] termList : documents.values()) {
+                bytes += 16 + 4L * termList.length // the int[]
+                        + 32 + 16;                 // HashMap node and boxed key
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // @return the lower-cased alphanumeric terms of text, in order (with repeats)
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH));
+                tokens.add(token.toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private void setPending(Map<Integer, Message> changes) {
+        lock.writeLock().lock();
+        try {
+            pending = changes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // callers hold the write lock, or own the index
+    private void add(Message message) {
+        List<String> tokens = tokenize(message.getMessage_text());
+        if (tokens.isEmpty()) return;
+
+        Map<Integer, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(termId(token), 1, Integer::sum);
+        }
+
+        int messageId = message.getMessage_id();
+        int[] termList = new int[frequencies.size() + 1];
+        termList[0] = tokens.size();                      // document length, for ranking
+        int i = 1;
+        for (Map.Entry<Integer, Integer> entry : frequencies.entrySet()) {
+            termList[i++] = entry.getKey();
+            postings.get(entry.getKey()).add(messageId, entry.getValue());
+        }
+        documents.put(messageId, termList);
+        totalLength += tokens.size();
+    }
+
+    // callers hold the write lock, or own the index
+    private void remove(int messageId) {
+        int[] termList = documents.remove(messageId);
+        if (termList == null) return;
+
+        totalLength -= termList[0];
+        for (int i = 1; i < termList.length; i++) {
+            int termId = termList[i];
+            PostingList list = postings.get(termId);
+            list.remove(messageId);
+            if (list.size == 0) {
+                // drop the term; its id slot stays empty until the next rebuild
+                termIds.remove(terms.get(termId));
+                postings.set(termId, null);
+                terms.set(termId, null);
+            }
+        }
+    }
+
+    private int termId(String term) {
+        Integer id = termIds.get(term);
+        if (id != null) return id;
+        id = terms.size();
+        termIds.put(term, id);
+        terms.add(term);
+        postings.add(new PostingList());
+        return id;
+    }
+
+    private static List<List<String>> parse(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        if (query == null) return clauses;
+
+        boolean or = false;
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                or = !clauses.isEmpty();
+                continue;
+            }
+            boolean prefix = word.endsWith("*");
+            List<String> tokens = tokenize(word);
+            if (tokens.isEmpty()) continue;
+
+            // "e-mail" searches for e AND mail; only the last piece of a word carries its *
+            for (int i = 0; i < tokens.size(); i++) {
+                String term = prefix && i == tokens.size() - 1 ? tokens.get(i) + "*" : tokens.get(i);
+                if (or && i == 0) {
+                    clauses.get(clauses.size() - 1).add(term);
+                } else {
+                    List<String> clause = new ArrayList<>();
+                    clause.add(term);
+                    clauses.add(clause);
+                }
+            }
+            or = false;
+        }
+        return clauses;
+    }
+
+    // @return the ids of the indexed terms a clause can match, expanding prefixes
+    private int[] resolve(List<String> clause) {
+        List<Integer> ids = new ArrayList<>();
+        for (String term : clause) {
+            if (term.endsWith("*")) {
+                String prefix = term.substring(0, term.length() - 1);
+                for (Integer id : termIds.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                    if (ids.size() >= MAX_PREFIX_EXPANSION) break;
+                    ids.add(id);
+                }
+            } else {
+                Integer id = termIds.get(term);
+                if (id != null) ids.add(id);
+            }
+        }
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) result[i] = ids.get(i);
+        return result;
+    }
+
+    private long postingCount(int[] termIdList) {
+        long count = 0;
+        for (int termId : termIdList) count += postings.get(termId).size;
+        return count;
+    }
+
+    // @return the sorted, distinct message ids in any of the given terms' posting lists
+    private int[] union(int[] termIdList) {
+        if (termIdList.length == 1) {
+            PostingList list = postings.get(termIdList[0]);
+            return Arrays.copyOf(list.ids, list.size);
+        }
+        int[] all = new int[(int) postingCount(termIdList)];
+        int n = 0;
+        for (int termId : termIdList) {
+            PostingList list = postings.get(termId);
+            System.arraycopy(list.ids, 0, all, n, list.size);
+            n += list.size;
+        }
+        Arrays.sort(all, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || all[distinct - 1] != all[i]) all[distinct++] = all[i];
+        }
+        return Arrays.copyOf(all, distinct);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private Hits rank(int[] candidates, List<int[]> clauseTerms, int offset, int limit) {
+        int total = candidates.length;
+        if (offset >= total) return new Hits(new int[0], total);
+
+        double averageLength = documents.isEmpty() ? 1 : (double) totalLength / documents.size();
+        double[] scores = new double[total];
+        for (int[] termIdList : clauseTerms) {
+            for (int termId : termIdList) {
+                PostingList list = postings.get(termId);
+                double idf = Math.log(1 + (documents.size() - list.size + 0.5) / (list.size + 0.5));
+                for (int c = 0; c < total; c++) {
+                    int tf = list.frequency(candidates[c]);
+                    if (tf == 0) continue;
+                    double norm = K1 * (1 - B + B * documents.get(candidates[c])[0] / averageLength);
+                    scores[c] += idf * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+        }
+
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) order[i] = i;
+        Arrays.sort(order, (x, y) -> {
+            int byScore = Double.compare(scores[y], scores[x]);
+            return byScore != 0 ? byScore : Integer.compare(candidates[y], candidates[x]);
+        });
+
+        int end = (int) Math.min((long) offset + limit, total);
+        int[] page = new int[end - offset];
+        for (int i = offset; i < end; i++) page[i - offset] = candidates[order[i]];
+        return new Hits(page, total);
+    }
+
+    // Message ids (ascending) and how often the term occurs in each, as parallel int arrays.
+    private static final class PostingList {
+        int[] ids = new int[4];
+        int[] frequencies = new int[4];
+        int size;
+
+        void add(int messageId, int frequency) {
+            int at = size == 0 || ids[size - 1] < messageId ? size : insertionPoint(messageId);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(frequencies, at, frequencies, at + 1, size - at);
+            ids[at] = messageId;
+            frequencies[at] = frequency;
+            size++;
+        }
+
+        void remove(int messageId) {
+            int at = Arrays.binarySearch(ids, 0, size, messageId);
+            if (at < 0) return;
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            System.arraycopy(frequencies, at + 1, frequencies, at, size - at - 1);
+            size--;
+        }
+
+        int frequency(int messageId) {
+            int at = Arrays.binarySearch(ids, 0, size, messageId);
+            return at < 0 ? 0 : frequencies[at];
+        }
+
+        private int insertionPoint(int messageId) {
+            int at = Arrays.binarySearch(ids, 0, size, messageId);
+            return at < 0 ? -at - 1 : at;
+        }
+    }
+}
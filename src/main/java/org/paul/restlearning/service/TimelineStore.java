@@ -0,0 +1,208 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the most recent messages of recently read accounts in memory, newest first, so that
+// "latest page" reads of GET /accounts/{account_id}/messages don't touch the database.
+// A timeline is loaded on first read, then kept current by MessageService's change events.
+// Anything older than the cached window falls through to an indexed keyset query.
+public class TimelineStore implements MessageChangeListener {
+    private final IMessageDao messageDao;
+    private final int window;
+    private final LruCache<Integer, Timeline> timelines;
+
+    // Bumped on every change; a timeline loaded while a change was in flight is not cached.
+    private final AtomicLong changeStamp = new AtomicLong();
+    private final LongAdder memoryReads = new LongAdder();
+    private final LongAdder databaseReads = new LongAdder();
+
+    // @param window the number of most recent messages kept per account
+    // @param maxAccounts the number of account timelines kept before the least recently read is dropped
+    public TimelineStore(IMessageDao messageDao, int window, int maxAccounts, long ttl, TimeUnit unit) {
+        this.messageDao = messageDao;
+        this.window = window;
+        this.timelines = new LruCache<>(maxAccounts, ttl, unit);
+    }
+
+    // @return up to limit messages of the account older than the (beforeEpoch, beforeMessageId) cursor, newest first
+    public List<Message> page(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        Timeline timeline = timelines.get(accountId);
+        if (timeline == null) {
+            timeline = load(accountId);
+        }
+
+        if (timeline != null) {
+            List<Message> page = timeline.page(beforeEpoch, beforeMessageId, limit);
+            if (page != null) {
+                memoryReads.increment();
+                return page;
+            }
+        }
+
+        databaseReads.increment();
+        return messageDao.findMessagesByAccountIdBefore(accountId, beforeEpoch, beforeMessageId, limit);
+    }
+
+    // @return the page if it can be served from a timeline already in memory, otherwise null (page() would query)
+    public List<Message> cachedPage(int accountId, long beforeEpoch, int beforeMessageId, int limit) {
+        Timeline timeline = timelines.get(accountId);
+        if (timeline == null) return null;
+
+        List<Message> page = timeline.page(beforeEpoch, beforeMessageId, limit);
+        if (page != null) {
+            memoryReads.increment();
+        }
+        return page;
+    }
+
+    @Override
+    public void onCreated(Message message) {
+        changeStamp.incrementAndGet();
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.add(copy(message));
+        }
+    }
+
+    @Override
+    public void onUpdated(Message message) {
+        changeStamp.incrementAndGet();
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.replace(copy(message));
+        }
+    }
+
+    @Override
+    public void onDeleted(Message message) {
+        changeStamp.incrementAndGet();
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null) {
+            timeline.remove(message.getMessage_id());
+        }
+    }
+
+    // Forgets an account's timeline, e.g. after changes this store wasn't told about.
+    public void invalidate(int accountId) {
+        changeStamp.incrementAndGet();
+        timelines.invalidate(accountId);
+    }
+
+    public void invalidateAll() {
+        changeStamp.incrementAndGet();
+        timelines.invalidateAll();
+    }
+
+    public long memoryReads() {
+        return memoryReads.sum();
+    }
+
+    public long databaseReads() {
+        return databaseReads.sum();
+    }
+
+    public int accounts() {
+        return timelines.size();
+    }
+
+    private Timeline load(int accountId) {
+        long stamp = changeStamp.get();
+        List<Message> recent = messageDao.findMessagesByAccountIdBefore(accountId, Long.MAX_VALUE, Integer.MAX_VALUE, window);
+        Timeline timeline = new Timeline(recent, recent.size() < window);
+        if (changeStamp.get() != stamp) {
+            // something changed while we were reading; use it for this request only
+            return timeline;
+        }
+        timelines.put(accountId, timeline);
+        if (changeStamp.get() != stamp) {
+            // a change landed between the check and the put, and its event may have found no timeline
+            // to apply to; drop ours rather than keep one that might miss it
+            timelines.invalidate(accountId);
+        }
+        return timeline;
+    }
+
+    private static Message copy(Message m) {
+        return new Message(m.getMessage_id(), m.getPosted_by(), m.getMessage_text(), m.getTime_posted_epoch());
+    }
+
+    // compares by (time_posted_epoch, message_id), the order timelines are kept in (descending)
+    private static int compare(long epochA, int idA, long epochB, int idB) {
+        int byTime = Long.compare(epochA, epochB);
+        return byTime != 0 ? byTime : Integer.compare(idA, idB);
+    }
+
+    // One account's most recent messages, newest first. `complete` means the account has no older
+    // messages than the ones held here, so a short page is the real end of the timeline.
+    private final class Timeline {
+        private final ArrayList<Message> entries;
+        private boolean complete;
+
+        Timeline(List<Message> newestFirst, boolean complete) {
+            this.entries = new ArrayList<>(newestFirst.size() + 1);
+            for (Message message : newestFirst) {
+                entries.add(copy(message));
+            }
+            this.complete = complete;
+        }
+
+        // @return the page, or null if it reaches past what this timeline holds
+        synchronized List<Message> page(long beforeEpoch, int beforeMessageId, int limit) {
+            List<Message> page = new ArrayList<>(Math.min(limit, entries.size()));
+            for (Message message : entries) {
+                if (compare(message.getTime_posted_epoch(), message.getMessage_id(), beforeEpoch, beforeMessageId) >= 0) {
+                    continue;
+                }
+                page.add(copy(message));
+                if (page.size() == limit) {
+                    return page;
+                }
+            }
+            return complete ? page : null;
+        }
+
+        synchronized void add(Message message) {
+            for (Message entry : entries) {
+                // a load that ran after the insert committed already picked it up
+                if (entry.getMessage_id() == message.getMessage_id()) {
+                    return;
+                }
+            }
+            int i = 0;
+            while (i < entries.size() && compare(entries.get(i).getTime_posted_epoch(), entries.get(i).getMessage_id(),
+                    message.getTime_posted_epoch(), message.getMessage_id()) > 0) {
+                i++;
+            }
+            if (i == entries.size() && !complete) {
+                // older than everything we hold, and there are older messages we don't: not ours to keep
+                return;
+            }
+            entries.add(i, message);
+            if (entries.size() > window) {
+                entries.remove(entries.size() - 1);
+                complete = false;
+            }
+        }
+
+        synchronized void replace(Message message) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).getMessage_id() == message.getMessage_id()) {
+                    entries.set(i, message);
+                    return;
+                }
+            }
+        }
+
+        synchronized void remove(int messageId) {
+            entries.removeIf(m -> m.getMessage_id() == messageId);
+        }
+    }
+}
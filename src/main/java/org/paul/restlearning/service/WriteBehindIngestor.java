@@ -0,0 +1,161 @@
+package org.paul.restlearning.service;
+
+import org.paul.restlearning.dao.IMessageDao;
+import org.paul.restlearning.model.Message;
+import org.paul.restlearning.util.MpscRingBuffer;
+import org.paul.restlearning.util.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Group commit for message creation. Validated messages are put on a bounded lock-free queue; one writer
+// thread takes whatever has accumulated (up to maxBatch, waiting at most linger for more) and inserts it
+// as a single batched transaction. Each caller's future completes with its generated id only after that
+// transaction has committed, so nothing is acknowledged that isn't durable. Under concurrency many
+// requests share one commit instead of each paying for its own.
+//
+// Futures are completed on a separate single thread, in commit order, so whatever the callers chain on
+// them (change listeners, response writing) never holds up the next batch. close() stops accepting
+// messages and waits for everything already queued to be written and completed.
+public class WriteBehindIngestor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindIngestor.class);
+
+    private final IMessageDao messageDao;
+    private final MpscRingBuffer<Pending> queue;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final Thread writer;
+    private final ExecutorService completions;
+
+    private volatile boolean running = true;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public WriteBehindIngestor(IMessageDao messageDao, int queueCapacity, int maxBatch, long linger, TimeUnit unit) {
+        this.messageDao = messageDao;
+        this.queue = new MpscRingBuffer<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.lingerNanos = unit.toNanos(linger);
+        this.completions = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "message-write-behind-complete");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::run, "message-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // @param message an already validated message (no message_id)
+    // @return a future completing with the persisted message once its batch commits, or with null if it could not be stored
+    // @throws TooManyRequestsException if the queue is full
+    public CompletableFuture<Message> submit(Message message) {
+        Pending pending = new Pending(message);
+        if (!running || !queue.offer(pending)) {
+            rejected.increment();
+            throw new TooManyRequestsException("Message ingestion queue is full");
+        }
+        LockSupport.unpark(writer);
+        return pending.result;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    public long messages() {
+        return messages.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            if (!writer.isAlive()) {
+                completions.shutdown();
+                completions.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || queue.size() > 0) {
+            Pending first = queue.poll();
+            if (first == null) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+
+            batch.add(first);
+            long deadline = System.nanoTime() + lingerNanos;
+            while (batch.size() < maxBatch) {
+                if (queue.drainTo(batch, maxBatch - batch.size()) == 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    LockSupport.parkNanos(this, Math.min(remaining, 50_000));
+                }
+            }
+
+            List<Pending> written = new ArrayList<>(batch);
+            batch.clear();
+            try {
+                List<Message> created = write(written);
+                completions.execute(() -> {
+                    for (int i = 0; i < written.size(); i++) written.get(i).result.complete(created.get(i));
+                });
+            } catch (RuntimeException e) {
+                LOG.error("Write-behind batch of {} messages failed", written.size(), e);
+                completions.execute(() -> {
+                    for (Pending pending : written) pending.result.completeExceptionally(e);
+                });
+            }
+        }
+    }
+
+    // @return the stored message for each entry of batch, in order (null where it could not be stored)
+    private List<Message> write(List<Pending> batch) {
+        List<Message> rows = new ArrayList<>(batch.size());
+        for (Pending pending : batch) rows.add(pending.message);
+
+        List<Message> created = messageDao.createMessages(rows);
+        if (created == null) {
+            // one bad row fails the whole transaction; retry individually so the others still land
+            created = new ArrayList<>(batch.size());
+            for (Message row : rows) created.add(messageDao.createMessage(row));
+        }
+        batches.increment();
+        messages.add(batch.size());
+        return created;
+    }
+
+    private static final class Pending {
+        final Message message;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        Pending(Message message) {
+            this.message = message;
+        }
+    }
+}
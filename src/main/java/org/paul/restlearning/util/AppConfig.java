@@ -0,0 +1,73 @@
+package org.paul.restlearning.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+// Central place for runtime settings. A key such as "db.pool.max-total" is looked up, in order, as
+//   1. a JVM system property:  -Ddb.pool.max-total=20
+//   2. an environment variable: DB_POOL_MAX_TOTAL=20
+//   3. the properties file named by the config.file property / CONFIG_FILE variable, if any
+//   4. application.properties on the classpath
+// and falls back to the default given by the caller when none of them set it.
+public class AppConfig {
+
+    private static final Properties FILE_PROPERTIES = loadProperties();
+
+    private AppConfig() {
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(toEnvName(key));
+        }
+        if (value == null) {
+            value = FILE_PROPERTIES.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    // db.pool.max-total -> DB_POOL_MAX_TOTAL
+    static String toEnvName(String key) {
+        return key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static Properties loadProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = AppConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        String configFile = System.getProperty("config.file", System.getenv("CONFIG_FILE"));
+        if (configFile != null && !configFile.isBlank()) {
+            try (InputStream in = new FileInputStream(configFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,267 @@
+package org.paul.restlearning.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// The part of an InvalidationBus that doesn't depend on the transport. publish() puts the event in a
+// lock-free queue; a flusher thread wakes every linger interval, coalesces what accumulated (a message
+// created and then edited twice is one "created"; anything followed by a delete is one "deleted") and
+// hands the batch to send() as compact text:
+//   <node>;mc12.3,mu14.3,md15.4,ac7
+// that is entity (m/a), change (c/u/d), id and, after the dot, the owning account. Batches are split
+// to stay under maxPayloadBytes. A batch that fails to send is kept and coalesced into the next one,
+// so a transport hiccup costs peers one linger interval, not their caches. Only when events are
+// actually dropped (the queue overflowed, or more failed batches piled up than it holds) does the next
+// batch start with "*", which tells peers they have missed changes.
+//
+// Subclasses deliver payloads and pass what arrives from peers to received().
+public abstract class BatchingInvalidationBus implements InvalidationBus {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingInvalidationBus.class);
+
+    // Identifies this node's batches, so its own can be recognised if the transport echoes them.
+    protected final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final MpscRingBuffer<Event> queue;
+    private final int queueCapacity;
+    // coalesced events of batches that failed to send, sent first on the next tick; flusher only
+    private final List<Event> unsent = new ArrayList<>();
+    private final long lingerNanos;
+    private final int maxPayloadBytes;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread flusher;
+    private volatile boolean lost;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder gaps = new LongAdder();
+
+    // @param linger how long events may wait to be sent with others
+    // @param queueCapacity events that may wait, and failed events that may wait for a retry; beyond
+    // that they are dropped and peers told of a gap
+    // @param maxPayloadBytes upper bound on one encoded batch
+    protected BatchingInvalidationBus(long linger, TimeUnit unit, int queueCapacity, int maxPayloadBytes) {
+        this.queue = new MpscRingBuffer<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.lingerNanos = unit.toNanos(linger);
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.flusher = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(lingerNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flush();
+            }
+        }, "invalidation-bus-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    // Delivers one encoded batch to the peers.
+    protected abstract void send(String payload) throws Exception;
+
+    @Override
+    public void publish(Event event) {
+        published.increment();
+        if (!queue.offer(event)) {
+            lost = true;
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void start() {
+        flusher.start();
+    }
+
+    @Override
+    public void close() {
+        flusher.interrupt();
+        flush();
+    }
+
+    // Sends everything queued now rather than at the next linger tick. Synchronized because the
+    // queue allows only one consumer at a time.
+    public synchronized void flush() {
+        // retried events go first, so anything newer about the same entity replaces them
+        List<Event> drained = new ArrayList<>(unsent);
+        unsent.clear();
+        queue.drainTo(drained, Integer.MAX_VALUE);
+        boolean gap = lost;
+        if (drained.isEmpty() && !gap) return;
+        lost = false;
+
+        List<Event> batch = coalesce(drained);
+        int delivered = 0;
+        try {
+            for (String payload : encode(nodeId, batch, gap, maxPayloadBytes)) {
+                send(payload);
+                batches.increment();
+                delivered++;
+            }
+            sent.add(batch.size());
+        } catch (Exception e) {
+            // the "*" went out with the first payload, if that one made it
+            if (gap && delivered == 0) lost = true;
+            // the whole batch is retried; peers may get the sent part twice, which does no harm
+            int kept = Math.min(batch.size(), queueCapacity);
+            unsent.addAll(batch.subList(0, kept));
+            if (kept < batch.size()) {
+                lost = true;
+                LOG.warn("Could not send {} invalidation events, dropped {}: {}", batch.size(), batch.size() - kept, e.toString());
+            } else {
+                LOG.warn("Could not send {} invalidation events, retrying: {}", batch.size(), e.toString());
+            }
+        }
+    }
+
+    // Decodes a batch from the transport and tells the listeners, unless it is this node's own.
+    protected void received(String payload) {
+        int separator = payload.indexOf(';');
+        if (separator < 0 || payload.substring(0, separator).equals(nodeId)) return;
+
+        List<Event> events = new ArrayList<>();
+        boolean gap = false;
+        for (String token : payload.substring(separator + 1).split(",")) {
+            if (token.equals("*")) {
+                gap = true;
+            } else if (!token.isEmpty()) {
+                Event event = decode(token);
+                if (event != null) {
+                    events.add(event);
+                } else {
+                    LOG.warn("Ignoring malformed invalidation event '{}'", token);
+                }
+            }
+        }
+        received.add(events.size());
+        if (gap) {
+            missed();
+        }
+        if (!events.isEmpty()) {
+            deliver(events);
+        }
+    }
+
+    // Hands a peer's events to the listeners; subclasses may look at them first.
+    protected void deliver(List<Event> events) {
+        for (Listener listener : listeners) listener.onRemoteChanges(events);
+    }
+
+    // For subclasses that lose their connection to the peers: whatever was sent meanwhile is gone.
+    protected void missed() {
+        gaps.increment();
+        for (Listener listener : listeners) listener.onGap();
+    }
+
+    public long published() {
+        return published.sum();
+    }
+
+    // Events sent after coalescing; published() - sent() is what coalescing saved.
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long gaps() {
+        return gaps.sum();
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    // Events of failed batches waiting to be sent again. Read by other threads, so only a rough figure.
+    public int retrying() {
+        return unsent.size();
+    }
+
+    // @return one event per entity, in the order of each entity's first change
+    static List<Event> coalesce(List<Event> events) {
+        Map<Long, Event> latest = new LinkedHashMap<>();
+        for (Event event : events) {
+            long key = ((long) event.getEntity().ordinal() << 32) | (event.getId() & 0xffffffffL);
+            Event previous = latest.get(key);
+            if (previous != null && previous.getChange() == Change.CREATED && event.getChange() == Change.UPDATED) {
+                // still new to the peers, just with later contents, which they read anyway
+                continue;
+            }
+            latest.put(key, event);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    static List<String> encode(String nodeId, List<Event> events, boolean gap, int maxPayloadBytes) {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(nodeId).append(';');
+        int empty = payload.length();
+        if (gap) payload.append('*');
+        for (Event event : events) {
+            String token = encode(event);
+            if (payload.length() > empty && payload.length() + 1 + token.length() > maxPayloadBytes) {
+                payloads.add(payload.toString());
+                payload.setLength(empty);
+            }
+            if (payload.length() > empty) payload.append(',');
+            payload.append(token);
+        }
+        if (payload.length() > empty) payloads.add(payload.toString());
+        return payloads;
+    }
+
+    private static String encode(Event event) {
+        char entity = event.getEntity() == Entity.MESSAGE ? 'm' : 'a';
+        char change = switch (event.getChange()) {
+            case CREATED -> 'c';
+            case UPDATED -> 'u';
+            case DELETED -> 'd';
+        };
+        return event.getEntity() == Entity.MESSAGE
+                ? "" + entity + change + event.getId() + '.' + event.getOwnerId()
+                : "" + entity + change + event.getId();
+    }
+
+    // @return the event, or null if the token is not one
+    private static Event decode(String token) {
+        if (token.length() < 3) return null;
+        Entity entity = token.charAt(0) == 'm' ? Entity.MESSAGE : token.charAt(0) == 'a' ? Entity.ACCOUNT : null;
+        Change change = switch (token.charAt(1)) {
+            case 'c' -> Change.CREATED;
+            case 'u' -> Change.UPDATED;
+            case 'd' -> Change.DELETED;
+            default -> null;
+        };
+        if (entity == null || change == null) return null;
+        try {
+            int dot = token.indexOf('.', 2);
+            int id = Integer.parseInt(dot < 0 ? token.substring(2) : token.substring(2, dot));
+            int owner = dot < 0 ? id : Integer.parseInt(token.substring(dot + 1));
+            return new Event(entity, change, id, owner);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
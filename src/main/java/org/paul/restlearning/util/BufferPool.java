@@ -0,0 +1,76 @@
+package org.paul.restlearning.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// A small pool of growable byte buffers for assembling response bodies, so a busy endpoint reuses
+// the same few arrays instead of allocating (and later collecting) a fresh one per request.
+// Buffers that grew past maxRetainedBytes are dropped on release rather than pinned in the pool.
+public class BufferPool {
+    private final ArrayBlockingQueue<Buffer> idle;
+    private final int initialBytes;
+    private final int maxRetainedBytes;
+
+    // @param buffers how many idle buffers are kept
+    // @param initialBytes the starting size of a new buffer
+    // @param maxRetainedBytes buffers larger than this are not returned to the pool
+    public BufferPool(int buffers, int initialBytes, int maxRetainedBytes) {
+        this.idle = new ArrayBlockingQueue<>(buffers);
+        this.initialBytes = initialBytes;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    // @return an empty buffer; hand it back with release when done
+    public Buffer acquire() {
+        Buffer buffer = idle.poll();
+        return buffer != null ? buffer : new Buffer(initialBytes);
+    }
+
+    public void release(Buffer buffer) {
+        if (buffer.bytes.length > maxRetainedBytes) return;
+        buffer.length = 0;
+        idle.offer(buffer);
+    }
+
+    public int idle() {
+        return idle.size();
+    }
+
+    public static final class Buffer {
+        private byte[] bytes;
+        private int length;
+
+        private Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        public Buffer append(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+            return this;
+        }
+
+        public Buffer append(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.paul.restlearning.util;
+
+import javax.sql.DataSource;
+
+// A pooled DataSource that ConnectionUtil can hand out connections from. The implementation is
+// chosen with db.pool.type: "dbcp" (the default), "h2", or the name of a class implementing this
+// interface with a public constructor taking a PoolConfig.
+public interface ConnectionPool extends AutoCloseable {
+    DataSource dataSource();
+
+    // @return connections sitting idle in the pool, or -1 if the implementation can't tell
+    int idle();
+
+    int maxTotal();
+
+    @Override
+    void close();
+
+    static ConnectionPool create(PoolConfig config) {
+        switch (config.type) {
+            case "dbcp":
+                return new DbcpConnectionPool(config);
+            case "h2":
+                return new H2ConnectionPool(config);
+            default:
+                try {
+                    return (ConnectionPool) Class.forName(config.type)
+                            .getConstructor(PoolConfig.class)
+                            .newInstance(config);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Unknown db.pool.type: " + config.type, e);
+                }
+        }
+    }
+}
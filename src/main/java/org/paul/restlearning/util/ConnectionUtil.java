@@ -1,59 +1,130 @@
 package org.paul.restlearning.util;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.dbcp2.BasicDataSource;
-//import org.h2.tools.RunScript;
+import org.paul.restlearning.metrics.PoolMetrics;
 
 
  // The ConnectionUtil class will be utilized to create an active connection to our database.
-// This class utilizes the singleton design pattern. We will be utilizing an in-memory called h2database for the sql demos.
+// This class utilizes the singleton design pattern. The pool behind it is configured through AppConfig
+// (see application.properties), so the same code runs against Postgres or an in-memory H2 database.
 
 public class ConnectionUtil {
 
+    // DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+    private static final PoolConfig CONFIG = PoolConfig.fromAppConfig("db");
+    private static final PooledSource PRIMARY = new PooledSource("primary", CONFIG);
 
-    private static final String URL = "jdbc:postgresql://localhost:5432/pep_social_media";
-    private static final String USERNAME = System.getenv("DB_USER_PSQL");
-    private static final String PASSWORD = System.getenv("DB_PASSWORD_PSQL");
+    // Optional read replicas (db.replicas); with none configured every read goes to the primary.
+    private static final ReplicaRouter REPLICAS = ReplicaRouter.fromAppConfig("db", CONFIG);
 
-    // DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
-    private static final BasicDataSource POOL = new BasicDataSource();
+    // Creates future monthly partitions of message on Postgres; see db/migration/V2__partition_message.
+    private static final PartitionMaintainer PARTITIONS = new PartitionMaintainer(ConnectionUtil::getConnection,
+            AppConfig.getInt("db.partitions.months-ahead", 3),
+            AppConfig.getLong("db.partitions.check-hours", 6), TimeUnit.HOURS);
 
-    //  static initialization block to establish credentials for DataSource Pool
+    //  static initialization block to prepare the schema when an init script is configured (e.g. for H2),
+    //  then bring it up to date with the migrations in db/migration
     static {
-        POOL.setUrl(URL);
-        POOL.setUsername(USERNAME);
-        POOL.setPassword(PASSWORD);
+        if (CONFIG.initScript != null) {
+            runScript(CONFIG.initScript);
+        }
+        if (AppConfig.getBoolean("db.migrate", true)) {
+            new SchemaMigrator(ConnectionUtil::getConnection).migrate();
+        }
+        PARTITIONS.start();
+    }
+
+    // @return an active connection to the primary database, for writes
+    // @throws DatabaseUnavailableException if no connection could be obtained within db.pool.max-wait-ms
+    public static Connection getConnection() {
+        return PRIMARY.getConnection();
+    }
 
+    // @return a connection for a read that may lag the primary by up to db.replica.max-lag-ms:
+    // a healthy replica if there is one, otherwise the primary
+    public static Connection getReadConnection() {
+        Connection conn = REPLICAS.readConnection();
+        return conn != null ? conn : PRIMARY.getConnection();
+    }
 
-        POOL.setMinIdle(5);
-        POOL.setMaxIdle(5);
-        POOL.setMaxTotal(10);
+    // Like getReadConnection(), but reads of a key written within db.replica.max-lag-ms go to the primary,
+    // so a client always sees its own writes.
+    // @param kind what the key identifies, e.g. "message"; the same string the writer passed to wrote
+    public static Connection getReadConnection(String kind, Object key) {
+        if (REPLICAS.recentlyWritten(kind, key)) {
+            return PRIMARY.getConnection();
+        }
+        return getReadConnection();
     }
 
-    // @return an active connection to the database
-    public static Connection getConnection() {
+    // @return true if read connections may come from a replica, i.e. a read can miss a committed write
+    public static boolean hasReplicas() {
+        return !REPLICAS.replicas().isEmpty();
+    }
+
+    // Records a committed write of (kind, key), for getReadConnection(kind, key).
+    public static void wrote(String kind, Object key) {
+        REPLICAS.wrote(kind, key);
+    }
+
+    // @return a new connection to the primary that isn't taken from the pool, for sessions held open
+    // indefinitely (e.g. LISTEN); the caller closes it
+    // @throws DatabaseUnavailableException if the database can't be reached
+    public static Connection openUnpooledConnection() {
         try {
-            return POOL.getConnection();
+            return DriverManager.getConnection(CONFIG.url, CONFIG.username, CONFIG.password);
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new DatabaseUnavailableException("Could not connect to " + CONFIG.url, e);
         }
+    }
 
-        return null;
+    // @return live pool figures for the primary: active, idle, waiters, wait time and checkout duration
+    public static PoolMetrics poolMetrics() {
+        return PRIMARY.metrics();
     }
 
+    // @return the replicas with their health and pool figures, and how reads were routed
+    public static ReplicaRouter replicas() {
+        return REPLICAS;
+    }
+
+    // Runs a ';'-separated SQL script from the classpath (see SchemaMigrator.splitStatements for the splitting rules).
+    public static void runScript(String resource) {
+        String script;
+        try (InputStream in = ConnectionUtil.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("SQL script not found on classpath: " + resource);
+            }
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read SQL script " + resource, e);
+        }
+
+        try (Connection conn = getConnection(); Statement statement = conn.createStatement()) {
+            for (String sql : SchemaMigrator.splitStatements(script)) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 
     // For the purpose of testing, we will need to drop and recreate our database tables to keep it consistent across all tests.
     // The method will read the sql file in resources. This will be performed before every test.
-    /*public static void resetTestDatabase() {
-        try {
-            FileReader sqlReader = new FileReader("src/main/resources/ResourceMedia.sql");
-            RunScript.execute(getConnection(), sqlReader);
-        } catch (SQLException | FileNotFoundException e) {
-            e.printStackTrace();
+    // The script drops schema_version with the tables, so the migrations run again on the fresh ones:
+    // tests then see the same schema (indexes, partitioned message on Postgres) as the application.
+    public static void resetTestDatabase() {
+        runScript("ResourceMedia.sql");
+        if (AppConfig.getBoolean("db.migrate", true)) {
+            new SchemaMigrator(ConnectionUtil::getConnection).migrate();
         }
-    }*/
+    }
 }
@@ -0,0 +1,10 @@
+package org.paul.restlearning.util;
+
+// Thrown when no database connection could be obtained in time, e.g. because the pool is exhausted
+// or the database is down. The controller turns it into a 503 so callers back off instead of hanging.
+public class DatabaseUnavailableException extends RuntimeException {
+
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,48 @@
+package org.paul.restlearning.util;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+
+// Apache Commons DBCP2 pool; the production default.
+public class DbcpConnectionPool implements ConnectionPool {
+    private final BasicDataSource pool = new BasicDataSource();
+
+    public DbcpConnectionPool(PoolConfig config) {
+        pool.setUrl(config.url);
+        pool.setUsername(config.username);
+        pool.setPassword(config.password);
+
+        pool.setMinIdle(config.minIdle);
+        pool.setMaxIdle(config.maxIdle);
+        pool.setMaxTotal(config.maxTotal);
+        // fail fast instead of blocking forever when every connection is checked out
+        pool.setMaxWait(Duration.ofMillis(config.maxWaitMillis));
+    }
+
+    @Override
+    public DataSource dataSource() {
+        return pool;
+    }
+
+    @Override
+    public int idle() {
+        return pool.getNumIdle();
+    }
+
+    @Override
+    public int maxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    @Override
+    public void close() {
+        try {
+            pool.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.paul.restlearning.util;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import javax.sql.DataSource;
+
+// H2's built-in pool, for local and test runs against an embedded database, e.g.
+//   db.pool.type=h2
+//   db.url=jdbc:h2:mem:pep_social_media;MODE=PostgreSQL;DB_CLOSE_DELAY=-1
+//   db.init-script=ResourceMedia.sql
+public class H2ConnectionPool implements ConnectionPool {
+    private final JdbcConnectionPool pool;
+
+    public H2ConnectionPool(PoolConfig config) {
+        pool = JdbcConnectionPool.create(config.url,
+                config.username == null ? "" : config.username,
+                config.password == null ? "" : config.password);
+        pool.setMaxConnections(config.maxTotal);
+        // H2 only accepts whole seconds here; round up so a small wait doesn't become "wait forever"
+        pool.setLoginTimeout((int) Math.max(1, (config.maxWaitMillis + 999) / 1000));
+    }
+
+    @Override
+    public DataSource dataSource() {
+        return pool;
+    }
+
+    @Override
+    public int idle() {
+        return -1;
+    }
+
+    @Override
+    public int maxTotal() {
+        return pool.getMaxConnections();
+    }
+
+    @Override
+    public void close() {
+        pool.dispose();
+    }
+}
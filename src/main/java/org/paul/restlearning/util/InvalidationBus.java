@@ -0,0 +1,81 @@
+package org.paul.restlearning.util;
+
+import java.util.List;
+
+// Carries entity changes between the nodes of a deployment, so each node can drop or refresh what it
+// holds in memory about an entity that another node just changed. Events say what changed, not the
+// new contents: a node that cares re-reads the entity from the database.
+//
+// Publishing never blocks. Delivery is at most once and batched, so peers converge within a few
+// milliseconds; when a node can't be sure it saw everything (its queue overflowed, its connection to
+// the bus dropped) its listeners get onGap() and should discard everything they cache.
+public interface InvalidationBus extends AutoCloseable {
+
+    enum Entity { MESSAGE, ACCOUNT }
+
+    enum Change { CREATED, UPDATED, DELETED }
+
+    // Told about changes made by other nodes; never about this node's own.
+    interface Listener {
+        void onRemoteChanges(List<Event> events);
+
+        // Changes may have been missed; anything cached could be stale.
+        void onGap();
+    }
+
+    // Queues a change made by this node for its peers.
+    void publish(Event event);
+
+    void subscribe(Listener listener);
+
+    // Starts sending and receiving.
+    void start();
+
+    @Override
+    void close();
+
+    final class Event {
+        private final Entity entity;
+        private final Change change;
+        private final int id;
+        private final int ownerId;
+
+        public Event(Entity entity, Change change, int id, int ownerId) {
+            this.entity = entity;
+            this.change = change;
+            this.id = id;
+            this.ownerId = ownerId;
+        }
+
+        // @param postedBy the message's account, which timelines and account ETags are keyed by
+        public static Event message(Change change, int messageId, int postedBy) {
+            return new Event(Entity.MESSAGE, change, messageId, postedBy);
+        }
+
+        public static Event account(Change change, int accountId) {
+            return new Event(Entity.ACCOUNT, change, accountId, accountId);
+        }
+
+        public Entity getEntity() {
+            return entity;
+        }
+
+        public Change getChange() {
+            return change;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        // @return the owning account: posted_by for messages, the account itself for accounts
+        public int getOwnerId() {
+            return ownerId;
+        }
+
+        @Override
+        public String toString() {
+            return entity + " " + change + " " + id + " (owner " + ownerId + ")";
+        }
+    }
+}
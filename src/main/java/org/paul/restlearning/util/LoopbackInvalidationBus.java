@@ -0,0 +1,51 @@
+package org.paul.restlearning.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// In-process InvalidationBus: every bus on the same Hub receives the others' batches, after the same
+// batching, coalescing and encoding a networked bus does. Meant for tests and for running several
+// nodes in one JVM; a node alone on its hub has no peers and never hears anything.
+// Batches are delivered on the sending node's flusher thread.
+public class LoopbackInvalidationBus extends BatchingInvalidationBus {
+    private static final Hub SHARED = new Hub();
+
+    private final Hub hub;
+
+    // Joins the JVM-wide hub.
+    public LoopbackInvalidationBus(long linger, TimeUnit unit, int queueCapacity) {
+        this(SHARED, linger, unit, queueCapacity);
+    }
+
+    public LoopbackInvalidationBus(Hub hub, long linger, TimeUnit unit, int queueCapacity) {
+        super(linger, unit, queueCapacity, Integer.MAX_VALUE);
+        this.hub = hub;
+    }
+
+    @Override
+    public void start() {
+        hub.members.add(this);
+        super.start();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        hub.members.remove(this);
+    }
+
+    @Override
+    protected void send(String payload) {
+        for (LoopbackInvalidationBus member : hub.members) {
+            if (member != this) {
+                member.received(payload);
+            }
+        }
+    }
+
+    // A set of buses that hear each other.
+    public static final class Hub {
+        private final List<LoopbackInvalidationBus> members = new CopyOnWriteArrayList<>();
+    }
+}
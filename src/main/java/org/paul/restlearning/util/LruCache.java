@@ -0,0 +1,158 @@
+package org.paul.restlearning.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded, thread-safe cache that evicts the least recently used entry once it is full and
+// treats entries older than the time-to-live as absent. Hit, miss, eviction and expiration counts
+// are kept so the cache can be sized by measurement rather than by guessing.
+//
+// The entries are split into segments by key hash, each an access-ordered LinkedHashMap with its own
+// lock, so readers of different keys rarely wait on each other. Each segment holds its share of
+// maxEntries and evicts its own least recently used entry, which makes the LRU order approximate
+// across the whole cache.
+public class LruCache<K, V> {
+    private static final int MAX_SEGMENTS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Segment<K, V>[] segments;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // @param maxEntries the number of entries kept before the least recently used one is evicted
+    // @param ttl how long an entry stays valid after it was written
+    // @param unit the unit of ttl
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        // small caches keep a single segment, so their LRU order stays exact
+        int count = Math.max(1, Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxEntries / 64)));
+        this.segments = new Segment[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            // spread the remainder so the capacities add up to maxEntries
+            segments[i] = new Segment<>(maxEntries / count + (i < maxEntries % count ? 1 : 0), evictions);
+        }
+    }
+
+    // @return the cached value, or null if it is missing or has expired
+    public V get(K key) {
+        long now = System.nanoTime();
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.get(key);
+            if (entry != null && now - entry.writtenAt < ttlNanos) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                segment.remove(key);
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, System.nanoTime());
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Entries pushed out to make room; expired entries are counted by expirations().
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // Entries found past their time-to-live and dropped.
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;  // spread sequential ids across the segments
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    // access-order iteration turns the LinkedHashMap into an LRU list
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final int capacity;
+        private final LongAdder evictions;
+
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long writtenAt;
+
+        Entry(V value, long writtenAt) {
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
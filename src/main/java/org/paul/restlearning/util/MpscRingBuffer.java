@@ -0,0 +1,83 @@
+package org.paul.restlearning.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded, lock-free queue for many producers and a single consumer (D. Vyukov's bounded queue).
+// Each slot carries a sequence number: producers claim a slot with one CAS on the tail and publish it
+// by advancing the slot's sequence; the consumer reads slots in order without any CAS at all.
+// offer() never blocks: it returns false when the buffer is full so the caller can shed load.
+public class MpscRingBuffer<E> {
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    // @param capacity rounded up to the next power of two
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.elements = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Safe to call from any thread. @return false if the buffer is full
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.lazySet(index, position + 1);   // publish to the consumer
+                    return true;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+            // another producer claimed this slot first; retry with the new tail
+        }
+    }
+
+    // Consumer thread only. @return the oldest element, or null if none is published yet
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = (E) elements[index];
+        elements[index] = null;
+        sequences.lazySet(index, position + elements.length);  // hand the slot back to producers
+        head = position + 1;
+        return element;
+    }
+
+    // Consumer thread only. Moves up to max published elements into target. @return how many were moved
+    public int drainTo(List<? super E> target, int max) {
+        int drained = 0;
+        E element;
+        while (drained < max && (element = poll()) != null) {
+            target.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    // @return an approximate number of queued elements
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head, elements.length));
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+}
@@ -0,0 +1,80 @@
+package org.paul.restlearning.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Keeps monthly partitions of message created ahead of time on Postgres, by calling the
+// message_ensure_partitions function that migration V2 installs: once at startup, then on an interval.
+// Does nothing on databases without that function.
+public class PartitionMaintainer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionMaintainer.class);
+
+    private final Supplier<Connection> connections;
+    private final int monthsAhead;
+    private final Thread thread;
+
+    // @param monthsAhead how many months past the current one should always have a partition
+    public PartitionMaintainer(Supplier<Connection> connections, int monthsAhead, long interval, TimeUnit unit) {
+        this.connections = connections;
+        this.monthsAhead = monthsAhead;
+        long intervalNanos = unit.toNanos(interval);
+        this.thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(intervalNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ensurePartitions();
+            }
+        }, "partition-maintainer");
+        this.thread.setDaemon(true);
+    }
+
+    // Creates any missing partitions now and, if this database partitions message, keeps doing so.
+    public void start() {
+        if (ensurePartitions()) {
+            thread.start();
+        }
+    }
+
+    // @return false if this database has no partition function, so there is nothing to maintain
+    public boolean ensurePartitions() {
+        try (Connection conn = connections.get()) {
+            if (!"PostgreSQL".equalsIgnoreCase(conn.getMetaData().getDatabaseProductName())) {
+                return false;
+            }
+            try (PreparedStatement ps = conn.prepareStatement("SELECT to_regproc('message_ensure_partitions') IS NOT NULL");
+                 ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    return false;
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement("SELECT message_ensure_partitions(?)")) {
+                ps.setInt(1, monthsAhead);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        LOG.info("Created {} message partitions", rs.getInt(1));
+                    }
+                }
+            }
+            return true;
+        } catch (SQLException | DatabaseUnavailableException e) {
+            // try again at the next interval
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+}
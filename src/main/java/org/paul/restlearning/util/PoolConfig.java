@@ -0,0 +1,50 @@
+package org.paul.restlearning.util;
+
+// Connection pool settings, read once from AppConfig. The defaults match the values this project
+// has always used against the local Postgres database.
+public class PoolConfig {
+    public final String type;
+    public final String url;
+    public final String username;
+    public final String password;
+    public final int maxTotal;
+    public final int minIdle;
+    public final int maxIdle;
+    public final long maxWaitMillis;
+    public final String initScript;
+
+    public PoolConfig(String type, String url, String username, String password,
+                      int maxTotal, int minIdle, int maxIdle, long maxWaitMillis, String initScript) {
+        this.type = type;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxTotal = maxTotal;
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.maxWaitMillis = maxWaitMillis;
+        this.initScript = initScript;
+    }
+
+    // @param prefix the key prefix to read, e.g. "db"
+    public static PoolConfig fromAppConfig(String prefix) {
+        int maxTotal = AppConfig.getInt(prefix + ".pool.max-total", 10);
+        return new PoolConfig(
+                AppConfig.get(prefix + ".pool.type", "dbcp"),
+                AppConfig.get(prefix + ".url", "jdbc:postgresql://localhost:5432/pep_social_media"),
+                AppConfig.get(prefix + ".user", System.getenv("DB_USER_PSQL")),
+                AppConfig.get(prefix + ".password", System.getenv("DB_PASSWORD_PSQL")),
+                maxTotal,
+                AppConfig.getInt(prefix + ".pool.min-idle", Math.min(5, maxTotal)),
+                AppConfig.getInt(prefix + ".pool.max-idle", Math.min(5, maxTotal)),
+                AppConfig.getLong(prefix + ".pool.max-wait-ms", 2000),
+                AppConfig.get(prefix + ".init-script", null)
+        );
+    }
+
+    // @return the same settings for a read replica at url: no init script, and its own pool size
+    public PoolConfig forReplica(String url, int maxTotal) {
+        return new PoolConfig(type, url, username, password,
+                maxTotal, Math.min(minIdle, maxTotal), Math.min(maxIdle, maxTotal), maxWaitMillis, null);
+    }
+}
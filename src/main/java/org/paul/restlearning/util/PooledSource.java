@@ -0,0 +1,120 @@
+package org.paul.restlearning.util;
+
+import org.paul.restlearning.metrics.PoolMetrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One database behind ConnectionUtil: the primary or a read replica. Owns the pool, its metrics and the
+// permits that cap how many callers reach it, and remembers whether the database looked healthy the
+// last time a connection was opened or used.
+public class PooledSource implements AutoCloseable {
+    private final PoolConfig config;
+    private final ConnectionPool pool;
+    private final PoolMetrics metrics;
+
+    // One permit per pooled connection. Callers queue here in FIFO order with a bounded wait, so thousands of
+    // virtual threads can't stampede the pool's own locks; at most maxTotal of them ever reach the pool.
+    private final Semaphore permits;
+
+    private volatile boolean healthy = true;
+
+    // @param name a label for the pool's metrics, e.g. "primary" or "replica-1"
+    public PooledSource(String name, PoolConfig config) {
+        this.config = config;
+        this.pool = ConnectionPool.create(config);
+        this.metrics = new PoolMetrics(name, pool::idle, pool.maxTotal());
+        this.permits = new Semaphore(pool.maxTotal(), true);
+    }
+
+    // @return an active connection to this database
+    // @throws DatabaseUnavailableException if no connection could be obtained within max-wait-ms
+    public Connection getConnection() {
+        metrics.waitStarted();
+        long start = System.nanoTime();
+        boolean permitted = false;
+        Connection conn;
+        try {
+            permitted = permits.tryAcquire(config.maxWaitMillis, TimeUnit.MILLISECONDS);
+            if (!permitted) {
+                throw new SQLException("Timed out after " + config.maxWaitMillis + " ms waiting for a connection");
+            }
+            try {
+                conn = pool.dataSource().getConnection();
+            } catch (SQLException e) {
+                // the pool had room but the database didn't answer
+                healthy = false;
+                throw e;
+            }
+        } catch (SQLException | InterruptedException e) {
+            if (permitted) {
+                permits.release();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            metrics.waitEnded(System.nanoTime() - start, false);
+            throw new DatabaseUnavailableException("No database connection available from " + metrics.name(), e);
+        }
+        long acquired = System.nanoTime();
+        metrics.waitEnded(acquired - start, true);
+        return track(conn, acquired);
+    }
+
+    public String name() {
+        return metrics.name();
+    }
+
+    public PoolConfig config() {
+        return config;
+    }
+
+    public PoolMetrics metrics() {
+        return metrics;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    // Wraps a pooled connection so that closing it records how long it was checked out and frees its permit,
+    // and so that a lost connection (SQLState class 08) marks this database unhealthy.
+    private Connection track(Connection conn, long acquiredAt) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                PooledSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0
+                            && released.compareAndSet(false, true)) {
+                        metrics.released(System.nanoTime() - acquiredAt);
+                        permits.release();
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        if (e.getCause() instanceof SQLException) {
+                            String state = ((SQLException) e.getCause()).getSQLState();
+                            if (state != null && state.startsWith("08")) {
+                                healthy = false;
+                            }
+                        }
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,129 @@
+package org.paul.restlearning.util;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+// InvalidationBus over Postgres LISTEN/NOTIFY, so nodes that share a database need nothing else to
+// talk to each other. Batches go out with pg_notify() on a pooled connection; a dedicated connection,
+// outside the pool since it is held for good, LISTENs on the channel and polls for notifications.
+// Every listening session gets every notification, ours included; our own are skipped by node id.
+// Payloads stay under Postgres' 8000-byte limit.
+//
+// If the listening connection fails it is reopened with backoff, and listeners get onGap(): whatever
+// was sent while nobody was listening is gone.
+//
+// Peers' changes are recorded with ConnectionUtil.wrote, like local writes, so the re-reads they cause
+// go to the primary rather than to a replica that may not have them yet.
+public class PostgresInvalidationBus extends BatchingInvalidationBus {
+    private static final Logger LOG = LoggerFactory.getLogger(PostgresInvalidationBus.class);
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final int POLL_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final Supplier<Connection> notifyConnections;
+    private final Supplier<Connection> listenConnections;
+    private final String channel;
+    private final Thread listener;
+
+    // @param notifyConnections short-lived connections to send on, normally the pool
+    // @param listenConnections opens the long-lived LISTEN connection
+    // @param channel notification channel, a lower-case SQL identifier
+    public PostgresInvalidationBus(Supplier<Connection> notifyConnections, Supplier<Connection> listenConnections,
+                                   String channel, long linger, TimeUnit unit, int queueCapacity) {
+        super(linger, unit, queueCapacity, MAX_PAYLOAD_BYTES);
+        if (!IDENTIFIER.matcher(channel).matches()) {
+            // LISTEN takes an identifier, not a bind parameter
+            throw new IllegalArgumentException("Invalid notification channel: " + channel);
+        }
+        this.notifyConnections = notifyConnections;
+        this.listenConnections = listenConnections;
+        this.channel = channel;
+        this.listener = new Thread(this::listen, "invalidation-bus-listener");
+        this.listener.setDaemon(true);
+    }
+
+    @Override
+    public void start() {
+        listener.start();
+        super.start();
+    }
+
+    @Override
+    public void close() {
+        listener.interrupt();
+        super.close();
+    }
+
+    @Override
+    protected void send(String payload) throws SQLException {
+        try (Connection conn = notifyConnections.get();
+             PreparedStatement ps = conn.prepareStatement("SELECT pg_notify(?, ?)")) {
+            ps.setString(1, channel);
+            ps.setString(2, payload);
+            ps.execute();
+        }
+    }
+
+    // Routes reads of what a peer just wrote to the primary, with the keys the DAOs read them by.
+    @Override
+    protected void deliver(List<Event> events) {
+        for (Event event : events) {
+            if (event.getEntity() == Entity.MESSAGE) {
+                ConnectionUtil.wrote("message", event.getId());
+                ConnectionUtil.wrote("posted_by", event.getOwnerId());
+            } else {
+                ConnectionUtil.wrote("account", event.getId());
+            }
+        }
+        super.deliver(events);
+    }
+
+    private void listen() {
+        long backoff = 100;
+        boolean connectedBefore = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection conn = listenConnections.get()) {
+                conn.setAutoCommit(true);
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                if (connectedBefore) {
+                    LOG.info("Invalidation bus listening on '{}' again", channel);
+                    missed();
+                }
+                connectedBefore = true;
+                backoff = 100;
+
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (!Thread.currentThread().isInterrupted()) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+                    if (notifications == null) continue;
+                    for (PGNotification notification : notifications) {
+                        received(notification.getParameter());
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (Thread.currentThread().isInterrupted()) return;
+                LOG.warn("Invalidation bus connection lost ({}); retrying in {} ms", e.toString(), backoff);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+}
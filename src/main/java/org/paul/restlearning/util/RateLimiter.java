@@ -0,0 +1,101 @@
+package org.paul.restlearning.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token buckets per key (an account id, a username, an IP address), implemented as GCRA: each key
+// holds one AtomicLong, the "theoretical arrival time" of its next request. Taking a permit is a read
+// and a CAS on that long, with no lock, so unrelated keys never contend and even a single hot key
+// costs one CAS per request.
+//
+// A key whose bucket has refilled completely carries no information, so a background sweep removes
+// idle keys and the table only holds clients that were active recently.
+public class RateLimiter implements AutoCloseable {
+    private final long intervalNanos;     // time to earn one permit
+    private final long toleranceNanos;    // how far ahead of schedule a key may run: (burst - 1) intervals
+    private final ConcurrentHashMap<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Thread sweeper;
+
+    private final LongAdder rejected = new LongAdder();
+
+    // @param permitsPerSecond the sustained rate allowed per key
+    // @param burst how many requests a key may make at once after being idle
+    // @param idleSweep how often idle keys are evicted
+    public RateLimiter(double permitsPerSecond, int burst, long idleSweep, TimeUnit unit) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+
+        long sweepNanos = unit.toNanos(idleSweep);
+        this.sweeper = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sweepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                evictIdle();
+            }
+        }, "rate-limiter-sweeper");
+        this.sweeper.setDaemon(true);
+        this.sweeper.start();
+    }
+
+    // Takes one permit for key. @return 0 if granted, otherwise the nanoseconds until one will be available
+    public long tryAcquire(Object key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long arrival = bucket.get();
+            long scheduled = Math.max(arrival, now);
+            long ahead = scheduled - now;
+            if (ahead > toleranceNanos) {
+                rejected.increment();
+                return ahead - toleranceNanos;
+            }
+            if (bucket.compareAndSet(arrival, scheduled + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    // Like tryAcquire, but throws instead of returning a wait.
+    // @throws TooManyRequestsException with the wait, rounded up to whole seconds, as Retry-After
+    public void acquireOrThrow(Object key, String scope) {
+        long wait = tryAcquire(key);
+        if (wait > 0) {
+            throw new TooManyRequestsException("Rate limit exceeded for " + scope,
+                    Math.max(1, (int) Math.ceil(wait / 1e9)));
+        }
+    }
+
+    public int keys() {
+        return buckets.size();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    // Removes keys whose bucket is full again; they behave exactly like keys never seen.
+    // A request racing the removal may get one permit more than its share, which is harmless.
+    public void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<Object, AtomicLong> entry : buckets.entrySet()) {
+            long arrival = entry.getValue().get();
+            if (arrival - now <= 0) {
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.interrupt();
+    }
+}
@@ -0,0 +1,194 @@
+package org.paul.restlearning.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Spreads reads over a set of read replicas, round-robin, skipping any that are unhealthy. A background
+// check probes every replica: one that can't be reached, or that lags the primary by more than maxLag,
+// gets no reads until it passes again. A replica whose connection fails during a request is ejected at
+// once, and the read moves on to the next one; with none left, the caller reads from the primary.
+//
+// Read-your-writes: the DAOs record the keys they write (a message id, an account id, a username), and
+// for maxLag afterwards reads of those keys go to the primary. Keys are hashed into a fixed table, so a
+// collision only sends an extra read to the primary. Scans that aren't keyed may lag by up to maxLag.
+public class ReplicaRouter implements AutoCloseable {
+    private final List<PooledSource> replicas;
+    private final long maxLagNanos;
+    private final AtomicLongArray lastWrite;   // nanoTime of the latest write per key slot, 0 if none
+    private final int mask;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Thread checker;
+
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder pinnedReads = new LongAdder();
+    private final LongAdder fallbackReads = new LongAdder();
+
+    // @param maxLag the most a replica may trail the primary, and how long written keys are read from the primary
+    // @param slots size of the recent-writes table, rounded up to a power of two
+    public ReplicaRouter(List<PooledSource> replicas, long maxLag, long healthCheckInterval, TimeUnit unit, int slots) {
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.maxLagNanos = unit.toNanos(maxLag);
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.lastWrite = new AtomicLongArray(replicas.isEmpty() ? 1 : size);
+        this.mask = lastWrite.length() - 1;
+
+        long intervalNanos = unit.toNanos(healthCheckInterval);
+        this.checker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(intervalNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                checkHealth();
+            }
+        }, "replica-health-check");
+        this.checker.setDaemon(true);
+        if (!replicas.isEmpty()) {
+            // probe once up front, so no request waits on a replica that is down at startup
+            checkHealth();
+            this.checker.start();
+        }
+    }
+
+    // Replicas listed in <prefix>.replicas (comma-separated JDBC URLs) share the primary's pool type and
+    // credentials; <prefix>.replica.pool.max-total sizes their pools.
+    public static ReplicaRouter fromAppConfig(String prefix, PoolConfig primary) {
+        List<PooledSource> replicas = new ArrayList<>();
+        String urls = AppConfig.get(prefix + ".replicas", "");
+        int maxTotal = AppConfig.getInt(prefix + ".replica.pool.max-total", primary.maxTotal);
+        for (String url : urls.split(",")) {
+            if (!url.isBlank()) {
+                replicas.add(new PooledSource("replica-" + (replicas.size() + 1), primary.forReplica(url.trim(), maxTotal)));
+            }
+        }
+        return new ReplicaRouter(replicas,
+                AppConfig.getLong(prefix + ".replica.max-lag-ms", 1000),
+                AppConfig.getLong(prefix + ".replica.health-check-ms", 1000),
+                TimeUnit.MILLISECONDS,
+                AppConfig.getInt(prefix + ".replica.write-slots", 65_536));
+    }
+
+    // @return a connection to a healthy replica, or null if there is none to read from
+    public Connection readConnection() {
+        int count = replicas.size();
+        if (count == 0) return null;
+
+        int start = next.getAndIncrement();
+        for (int i = 0; i < count; i++) {
+            PooledSource replica = replicas.get(Math.floorMod(start + i, count));
+            if (!replica.isHealthy()) continue;
+            try {
+                Connection conn = replica.getConnection();
+                replicaReads.increment();
+                return conn;
+            } catch (DatabaseUnavailableException e) {
+                // busy, or down and now marked unhealthy: try the next one
+            }
+        }
+        fallbackReads.increment();
+        return null;
+    }
+
+    // Records that the row behind (kind, key) has just been written on the primary.
+    public void wrote(String kind, Object key) {
+        if (replicas.isEmpty()) return;
+        long now = System.nanoTime();
+        lastWrite.set(slot(kind, key), now == 0 ? 1 : now);
+    }
+
+    // @return true if (kind, key) was written recently enough that a replica may not have it yet
+    public boolean recentlyWritten(String kind, Object key) {
+        if (replicas.isEmpty()) return false;
+        long written = lastWrite.get(slot(kind, key));
+        boolean recent = written != 0 && System.nanoTime() - written < maxLagNanos;
+        if (recent) {
+            pinnedReads.increment();
+        }
+        return recent;
+    }
+
+    public List<PooledSource> replicas() {
+        return replicas;
+    }
+
+    public long replicaReads() {
+        return replicaReads.sum();
+    }
+
+    // @return reads sent to the primary because their key was written within maxLag
+    public long pinnedReads() {
+        return pinnedReads.sum();
+    }
+
+    // @return reads sent to the primary because no replica could take them
+    public long fallbackReads() {
+        return fallbackReads.sum();
+    }
+
+    // Probes every replica and sets its health from the result.
+    public void checkHealth() {
+        for (PooledSource replica : replicas) {
+            replica.setHealthy(probe(replica));
+        }
+    }
+
+    @Override
+    public void close() {
+        checker.interrupt();
+        for (PooledSource replica : replicas) {
+            replica.close();
+        }
+    }
+
+    private boolean probe(PooledSource replica) {
+        Connection conn;
+        try {
+            conn = replica.getConnection();
+        } catch (DatabaseUnavailableException e) {
+            // a database that didn't answer was marked unhealthy; a busy one keeps its state
+            return replica.isHealthy();
+        }
+        try {
+            if (!conn.isValid(1)) return false;
+            return lagNanos(conn) <= maxLagNanos;
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // @return how far the replica's replay trails what it has received; 0 when caught up or not measurable (e.g. H2)
+    private static long lagNanos(Connection conn) throws SQLException {
+        if (!"PostgreSQL".equalsIgnoreCase(conn.getMetaData().getDatabaseProductName())) {
+            return 0;
+        }
+        String sql = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+                + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+        try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? (long) (rs.getDouble(1) * 1e9) : 0;
+        }
+    }
+
+    private int slot(String kind, Object key) {
+        int h = kind.hashCode() * 31 + key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+}
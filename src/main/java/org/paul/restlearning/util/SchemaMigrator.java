@@ -0,0 +1,266 @@
+package org.paul.restlearning.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Brings the schema up to date at startup. Migrations are listed, in order, in db/migration/migrations.txt
+// as V<version>__<description>; each is the script db/migration/V<version>__<description>.<vendor>.sql
+// if there is one for this database (vendor "postgresql" or "h2"), otherwise the same name without the
+// vendor. Every applied migration is recorded in schema_version with a SHA-256 of its script. A migration
+// is applied once, in its own transaction; one whose script changed after it was applied stops startup.
+public class SchemaMigrator {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private static final String DIRECTORY = "db/migration/";
+
+    // Key for pg_advisory_lock, so instances starting together don't both migrate.
+    private static final long LOCK_KEY = 0x5EED_0001L;
+
+    private final Supplier<Connection> connections;
+
+    // @param connections opens connections to the primary database
+    public SchemaMigrator(Supplier<Connection> connections) {
+        this.connections = connections;
+    }
+
+    // Applies every listed migration not yet recorded in schema_version.
+    // @return the number of migrations applied
+    // @throws IllegalStateException if a migration fails or an applied one was changed
+    public int migrate() {
+        try (Connection conn = connections.get()) {
+            String vendor = vendor(conn);
+            boolean postgres = vendor.equals("postgresql");
+            if (postgres) {
+                try (PreparedStatement ps = conn.prepareStatement("SELECT pg_advisory_lock(?)")) {
+                    ps.setLong(1, LOCK_KEY);
+                    ps.execute();
+                }
+            }
+            try {
+                createVersionTable(conn);
+                Map<Integer, String> applied = appliedChecksums(conn);
+
+                int count = 0;
+                for (String name : listMigrations()) {
+                    int version = version(name);
+                    String resource = resolve(name, vendor);
+                    String script = read(resource);
+                    String checksum = checksum(script);
+
+                    String recorded = applied.remove(version);
+                    if (recorded != null) {
+                        if (!recorded.equals(checksum)) {
+                            throw new IllegalStateException("Migration " + resource + " was changed after it was applied");
+                        }
+                        continue;
+                    }
+                    apply(conn, version, name, resource, script, checksum);
+                    count++;
+                }
+                if (!applied.isEmpty()) {
+                    LOG.warn("schema_version lists migrations this build doesn't know: {}", applied.keySet());
+                }
+                return count;
+            } finally {
+                if (postgres) {
+                    try (PreparedStatement ps = conn.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                        ps.setLong(1, LOCK_KEY);
+                        ps.execute();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Schema migration failed", e);
+        }
+    }
+
+    // Splits a script into statements on ';', except inside quotes, comments and $$-quoted bodies
+    // (Postgres functions and DO blocks).
+    public static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        int length = script.length();
+        while (i < length) {
+            char c = script.charAt(i);
+            if (c == '-' && i + 1 < length && script.charAt(i + 1) == '-') {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+                current.append('\n');
+            } else if (c == '/' && i + 1 < length && script.charAt(i + 1) == '*') {
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                current.append(' ');
+            } else if (c == '\'' || c == '"') {
+                int end = i + 1;
+                while (end < length && script.charAt(end) != c) end++;
+                current.append(script, i, Math.min(end + 1, length));
+                i = end + 1;
+            } else if (c == '$' && dollarTag(script, i) != null) {
+                String tag = dollarTag(script, i);
+                int end = script.indexOf(tag, i + tag.length());
+                end = end < 0 ? length : end + tag.length();
+                current.append(script, i, end);
+                i = end;
+            } else if (c == ';') {
+                addStatement(statements, current);
+                i++;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+        addStatement(statements, current);
+        return statements;
+    }
+
+    private void apply(Connection conn, int version, String name, String resource, String script, String checksum)
+            throws SQLException {
+        long start = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (Statement statement = conn.createStatement()) {
+            for (String sql : splitStatements(script)) {
+                statement.execute(sql);
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description, script, checksum, execution_ms) VALUES (?, ?, ?, ?, ?)")) {
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                ps.setInt(1, version);
+                ps.setString(2, description(name));
+                ps.setString(3, resource);
+                ps.setString(4, checksum);
+                ps.setLong(5, millis);
+                ps.executeUpdate();
+            }
+            conn.commit();
+            LOG.info("Applied migration {} in {} ms", resource, (System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new IllegalStateException("Migration " + resource + " failed", e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void createVersionTable(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INT PRIMARY KEY, "
+                    + "description VARCHAR(255) NOT NULL, "
+                    + "script VARCHAR(255) NOT NULL, "
+                    + "checksum VARCHAR(64) NOT NULL, "
+                    + "installed_on TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "execution_ms BIGINT NOT NULL)");
+        }
+    }
+
+    private static Map<Integer, String> appliedChecksums(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private static List<String> listMigrations() {
+        List<String> names = new ArrayList<>();
+        int last = 0;
+        for (String line : read(DIRECTORY + "migrations.txt").split("\n")) {
+            String name = line.trim();
+            if (name.isEmpty() || name.startsWith("#")) continue;
+            int version = version(name);
+            if (version <= last) {
+                throw new IllegalStateException("Migrations must be listed in increasing version order: " + name);
+            }
+            last = version;
+            names.add(name);
+        }
+        return names;
+    }
+
+    private static String resolve(String name, String vendor) {
+        String specific = DIRECTORY + name + "." + vendor + ".sql";
+        if (SchemaMigrator.class.getClassLoader().getResource(specific) != null) {
+            return specific;
+        }
+        return DIRECTORY + name + ".sql";
+    }
+
+    private static int version(String name) {
+        int separator = name.indexOf("__");
+        if (!name.startsWith("V") || separator < 2) {
+            throw new IllegalStateException("Migration name must look like V<version>__<description>: " + name);
+        }
+        return Integer.parseInt(name.substring(1, separator));
+    }
+
+    private static String description(String name) {
+        return name.substring(name.indexOf("__") + 2).replace('_', ' ');
+    }
+
+    private static String vendor(Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName();
+        return product.equalsIgnoreCase("PostgreSQL") ? "postgresql" : product.toLowerCase();
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Migration resource not found on classpath: " + resource);
+            }
+            // line endings normalized so a checkout with CRLF endings has the same checksum
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + resource, e);
+        }
+    }
+
+    private static String checksum(String script) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // @return the $tag$ starting at i, or null if there is none
+    private static String dollarTag(String script, int i) {
+        int end = i + 1;
+        while (end < script.length() && (Character.isLetterOrDigit(script.charAt(end)) || script.charAt(end) == '_')) {
+            end++;
+        }
+        if (end < script.length() && script.charAt(end) == '$') {
+            return script.substring(i, end + 1);
+        }
+        return null;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder current) {
+        String sql = current.toString().trim();
+        if (!sql.isEmpty()) {
+            statements.add(sql);
+        }
+        current.setLength(0);
+    }
+}
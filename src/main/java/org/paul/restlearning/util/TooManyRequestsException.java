@@ -0,0 +1,26 @@
+package org.paul.restlearning.util;
+
+// Thrown when a bounded work queue is full and the request is shed instead of queued. The controller
+// turns it into a 429 with Retry-After, so the client backs off rather than piling on more work.
+public class TooManyRequestsException extends RuntimeException {
+    private final int retryAfterSeconds;
+
+    public TooManyRequestsException(String message) {
+        this(message, 1);
+    }
+
+    public TooManyRequestsException(String message, Throwable cause) {
+        super(message, cause);
+        this.retryAfterSeconds = 1;
+    }
+
+    // @param retryAfterSeconds how long the client should wait before trying again
+    public TooManyRequestsException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,3 +1,8 @@
+-- Resets the database to the seed data below. schema_version goes too, so SchemaMigrator re-applies
+-- the migrations (indexes, partitioning) to the fresh tables: at startup, or right after the script
+-- in ConnectionUtil.resetTestDatabase.
+DROP TABLE IF EXISTS schema_version;
+
 DROP TABLE IF EXISTS message;
 
 DROP TABLE IF EXISTS account;
@@ -0,0 +1,14 @@
+-- The schema as ResourceMedia.sql creates it, for a database that doesn't have it yet.
+CREATE TABLE IF NOT EXISTS account (
+    account_id serial PRIMARY KEY,
+    username VARCHAR(255) UNIQUE,
+    password VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS message (
+    message_id serial PRIMARY KEY,
+    posted_by INT,
+    message_text VARCHAR(255),
+    time_posted_epoch BIGINT,
+    FOREIGN KEY (posted_by) REFERENCES account(account_id)
+);
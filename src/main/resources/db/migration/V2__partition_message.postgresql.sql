@@ -0,0 +1,67 @@
+-- Turns message into a table range-partitioned by time_posted_epoch (epoch seconds): one partition for
+-- everything before the month this runs in, one per month from then on, and a default partition for
+-- anything beyond the months created so far. message_ensure_partitions creates the monthly partitions;
+-- PartitionMaintainer calls it at startup and periodically, so they always exist ahead of time.
+--
+-- A partitioned table's primary key has to include the partition key, so it becomes
+-- (message_id, time_posted_epoch), which no longer keeps message_id unique on its own. New rows take
+-- their id from the sequence; MessageDaoImpl.importMessages checks explicit ids before inserting them.
+
+CREATE OR REPLACE FUNCTION message_ensure_partitions(months_ahead INT) RETURNS INT AS $$
+DECLARE
+    month_start TIMESTAMP := date_trunc('month', now() AT TIME ZONE 'UTC');
+    lower_bound TIMESTAMP;
+    partition_name TEXT;
+    created INT := 0;
+BEGIN
+    FOR i IN 0..months_ahead LOOP
+        lower_bound := month_start + make_interval(months => i);
+        partition_name := 'message_' || to_char(lower_bound, 'YYYY_MM');
+        IF to_regclass(partition_name) IS NULL THEN
+            BEGIN
+                EXECUTE format('CREATE TABLE %I PARTITION OF message FOR VALUES FROM (%s) TO (%s)',
+                        partition_name,
+                        EXTRACT(EPOCH FROM lower_bound)::BIGINT,
+                        EXTRACT(EPOCH FROM lower_bound + INTERVAL '1 month')::BIGINT);
+                created := created + 1;
+            EXCEPTION WHEN check_violation THEN
+                -- rows for that month already sit in the default partition; leave them there
+                RAISE NOTICE 'not creating %: the default partition holds rows in its range', partition_name;
+            END;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP INDEX IF EXISTS message_posted_by_time_idx;
+ALTER TABLE message RENAME TO message_unpartitioned;
+ALTER INDEX message_pkey RENAME TO message_unpartitioned_pkey;
+
+CREATE TABLE message (
+    message_id INT NOT NULL DEFAULT nextval('message_message_id_seq'),
+    posted_by INT,
+    message_text VARCHAR(255),
+    time_posted_epoch BIGINT NOT NULL,
+    PRIMARY KEY (message_id, time_posted_epoch),
+    FOREIGN KEY (posted_by) REFERENCES account(account_id)
+) PARTITION BY RANGE (time_posted_epoch);
+
+-- keep the sequence when the old table is dropped; pg_get_serial_sequence finds it through this
+ALTER SEQUENCE message_message_id_seq OWNED BY message.message_id;
+
+DO $$
+BEGIN
+    EXECUTE format('CREATE TABLE message_history PARTITION OF message FOR VALUES FROM (MINVALUE) TO (%s)',
+            EXTRACT(EPOCH FROM date_trunc('month', now() AT TIME ZONE 'UTC'))::BIGINT);
+END
+$$;
+
+SELECT message_ensure_partitions(3);
+
+CREATE TABLE message_default PARTITION OF message DEFAULT;
+
+INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch)
+SELECT message_id, posted_by, message_text, COALESCE(time_posted_epoch, 0) FROM message_unpartitioned;
+
+DROP TABLE message_unpartitioned;
@@ -0,0 +1 @@
+-- Only Postgres partitions message (see the .postgresql.sql script); elsewhere it stays a plain table.
@@ -0,0 +1,12 @@
+-- The same access paths as the generic script, but covering: the remaining columns are INCLUDEd, so
+-- these reads are index-only scans. Created on the partitioned parent, so every partition gets them,
+-- including the monthly ones created later.
+
+-- Newest-first pages of one account's messages (findMessagesByAccountIdBefore, timeline loads) and
+-- findMessagesByAccountId.
+CREATE INDEX IF NOT EXISTS message_posted_by_time_idx ON message (posted_by, time_posted_epoch DESC, message_id DESC)
+    INCLUDE (message_text);
+
+-- Reads ordered or filtered by time_posted_epoch.
+CREATE INDEX IF NOT EXISTS message_time_idx ON message (time_posted_epoch, message_id)
+    INCLUDE (posted_by, message_text);
@@ -0,0 +1,6 @@
+-- Newest-first pages of one account's messages (findMessagesByAccountIdBefore, timeline loads) and
+-- findMessagesByAccountId: an index range scan instead of a full scan of message.
+CREATE INDEX IF NOT EXISTS message_posted_by_time_idx ON message (posted_by, time_posted_epoch DESC, message_id DESC);
+
+-- Reads ordered or filtered by time_posted_epoch.
+CREATE INDEX IF NOT EXISTS message_time_idx ON message (time_posted_epoch, message_id);
@@ -0,0 +1,4 @@
+-- Incremental sync of one account (findMessagesSince with posted_by): messages after a message_id cursor,
+-- in id order, read as an index-only range instead of every message of the account.
+CREATE INDEX IF NOT EXISTS message_posted_by_id_idx ON message (posted_by, message_id)
+    INCLUDE (message_text, time_posted_epoch);
@@ -0,0 +1,187 @@
+package org.paul.restlearning.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.paul.restlearning.model.Message;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryMessageDaoTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private MemoryMessageDao dao;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("messages").toPath();
+        dao = open();
+    }
+
+    @After
+    public void tearDown() {
+        dao.close();
+    }
+
+    @Test
+    public void changesSurviveReopening() {
+        Message first = dao.createMessage(new Message(1, "first", 100));
+        Message second = dao.createMessage(new Message(2, "second", 200));
+        dao.createMessage(new Message(1, "third", 300));
+        dao.updateMessageText(first.getMessage_id(), "first, edited");
+        dao.deleteMessageById(second.getMessage_id());
+
+        List<String> before = rows(dao);
+        dao = reopen();
+
+        assertFalse(dao.isNew());
+        assertEquals(before, rows(dao));
+        assertEquals(List.of("first, edited", "third"), texts(dao.findMessagesByAccountId(1)));
+        assertNull(dao.findMessageById(second.getMessage_id()));
+    }
+
+    @Test
+    public void tornRecordAtTheEndOfTheLogIsIgnored() throws IOException {
+        dao.createMessage(new Message(1, "kept", 100));
+        dao.createMessage(new Message(1, "also kept", 200));
+        dao.createMessage(new Message(1, "torn", 300));
+        dao.close();
+
+        // cut the last record short, as a crash halfway through the append would
+        Path wal = newestWal();
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        dao = open();
+        assertEquals(List.of("kept", "also kept"), texts(dao.findAllMessages()));
+
+        // the store carries on from the recovered state, and the next start sees the same
+        Message next = dao.createMessage(new Message(1, "after recovery", 400));
+        assertEquals(3, next.getMessage_id());
+        dao = reopen();
+        assertEquals(List.of("kept", "also kept", "after recovery"), texts(dao.findAllMessages()));
+    }
+
+    @Test
+    public void garbageAfterTheLastRecordIsIgnored() throws IOException {
+        dao.createMessage(new Message(1, "kept", 100));
+        dao.close();
+
+        // a header claiming more bytes than follow, then a record whose checksum doesn't match
+        Files.write(newestWal(), new byte[] {0, 0, 0, 50, 1, 2, 3}, StandardOpenOption.APPEND);
+        dao = open();
+        assertEquals(List.of("kept"), texts(dao.findAllMessages()));
+        dao.close();
+
+        Files.write(newestWal(), new byte[] {0, 0, 0, 2, 0, 0, 0, 0, 'I', 0}, StandardOpenOption.APPEND);
+        dao = open();
+        assertEquals(List.of("kept"), texts(dao.findAllMessages()));
+    }
+
+    @Test
+    public void snapshotPlusLaterLogsRecoverEverything() throws IOException {
+        for (int i = 1; i <= 5; i++) dao.createMessage(new Message(i % 2 + 1, "before " + i, i));
+        dao.snapshot();
+        assertTrue(Files.exists(dir.resolve("messages.snapshot")));
+
+        dao.createMessage(new Message(1, "after 6", 6));
+        dao.updateMessageText(2, "before 2, edited");
+        dao.deleteMessageById(4);
+        List<String> before = rows(dao);
+
+        dao = reopen();
+        assertEquals(before, rows(dao));
+        assertEquals(7, dao.createMessage(new Message(2, "after 7", 7)).getMessage_id());
+        assertEquals(1, walFiles().size());
+    }
+
+    @Test
+    public void logsOlderThanTheSnapshotAreNotReplayed() throws IOException {
+        dao.createMessage(new Message(1, "one", 1));
+        dao.createMessage(new Message(1, "two", 2));
+        Path oldWal = newestWal();
+        Path saved = folder.newFile("saved.wal").toPath();
+        Files.copy(oldWal, saved, StandardCopyOption.REPLACE_EXISTING);
+
+        dao.snapshot();
+        dao.deleteMessageById(1);
+        dao.close();
+
+        // a crash between writing the snapshot and deleting the log it covers leaves the old log behind
+        Files.copy(saved, oldWal, StandardCopyOption.REPLACE_EXISTING);
+
+        dao = open();
+        assertEquals(List.of("two"), texts(dao.findAllMessages()));
+        assertFalse(Files.exists(oldWal));
+    }
+
+    @Test
+    public void importedRowsKeepTheirIdsAndMoveTheSequence() {
+        List<Message> rows = new ArrayList<>();
+        rows.add(new Message(20, 1, "twenty", 20));
+        rows.add(new Message(10, 2, "ten", 10));
+        assertTrue(dao.importMessages(rows));
+        assertFalse("duplicate ids are refused", dao.importMessages(List.of(new Message(10, 1, "again", 1))));
+
+        dao.resyncIdSequence();
+        assertEquals(21, dao.createMessage(new Message(1, "next", 30)).getMessage_id());
+
+        dao = reopen();
+        assertEquals(List.of("ten", "twenty", "next"), texts(dao.findAllMessages()));
+    }
+
+    private MemoryMessageDao open() {
+        return new MemoryMessageDao(dir, false, Long.MAX_VALUE, null);
+    }
+
+    private MemoryMessageDao reopen() {
+        dao.close();
+        return open();
+    }
+
+    private Path newestWal() throws IOException {
+        List<Path> files = walFiles();
+        return files.get(files.size() - 1);
+    }
+
+    private List<Path> walFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".wal"))
+                    .sorted((a, b) -> Long.compare(generation(a), generation(b)))
+                    .toList();
+        }
+    }
+
+    private static long generation(Path wal) {
+        String name = wal.getFileName().toString();
+        return Long.parseLong(name.substring("messages.".length(), name.length() - ".wal".length()));
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getMessage_text).toList();
+    }
+
+    private static List<String> rows(MemoryMessageDao dao) {
+        return dao.findAllMessages().stream()
+                .map(m -> m.getMessage_id() + "|" + m.getPosted_by() + "|" + m.getMessage_text() + "|" + m.getTime_posted_epoch())
+                .toList();
+    }
+}
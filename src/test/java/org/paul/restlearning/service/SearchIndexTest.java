@@ -0,0 +1,96 @@
+package org.paul.restlearning.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.paul.restlearning.model.Message;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SearchIndexTest {
+    private SearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex();
+        index.onCreated(new Message(1, 1, "Learning Java with Spring Boot", 100));
+        index.onCreated(new Message(2, 1, "Kotlin coroutines", 200));
+        index.onCreated(new Message(3, 2, "java java java", 300));
+        index.onCreated(new Message(4, 2, "Springtime in the park", 400));
+        index.onCreated(new Message(5, 3, "e-mail from a Java user", 500));
+    }
+
+    @Test
+    public void tokenizeLowerCasesAndSplitsOnNonAlphanumerics() {
+        assertEquals(List.of("hello", "world", "42"), SearchIndex.tokenize("Hello, WORLD! 42"));
+        assertEquals(List.of(), SearchIndex.tokenize("  ...  "));
+        assertEquals(List.of(), SearchIndex.tokenize(null));
+    }
+
+    @Test
+    public void termsMustAllMatch() {
+        assertArrayEquals(new int[] {1}, index.search("java spring", 0, 10).ids());
+        assertEquals(0, index.search("java kotlin", 0, 10).total());
+    }
+
+    @Test
+    public void orMatchesEitherTerm() {
+        SearchIndex.Hits hits = index.search("kotlin OR spring", 0, 10);
+        assertEquals(2, hits.total());
+        assertArrayEquals(new int[] {1, 2}, sorted(hits.ids()));
+    }
+
+    @Test
+    public void trailingStarMatchesByPrefix() {
+        assertArrayEquals(new int[] {4, 1}, index.search("spring*", 0, 10).ids());
+    }
+
+    @Test
+    public void punctuatedWordsSearchForEachPiece() {
+        assertArrayEquals(new int[] {5}, index.search("e-mail", 0, 10).ids());
+    }
+
+    @Test
+    public void emptyOrUnknownQueriesMatchNothing() {
+        assertEquals(0, index.search("", 0, 10).total());
+        assertEquals(0, index.search("OR", 0, 10).total());
+        assertEquals(0, index.search("python", 0, 10).total());
+    }
+
+    @Test
+    public void rankingPrefersFrequentTermsInShortMessagesThenNewest() {
+        // message 3 repeats the term; 1 and 5 each have it once, and 1 is shorter
+        assertArrayEquals(new int[] {3, 1, 5}, index.search("java", 0, 10).ids());
+
+        // 6 holds the same terms as 5, so they tie and the newer comes first
+        index.onCreated(new Message(6, 4, "java user from a e-mail", 600));
+        assertArrayEquals(new int[] {3, 1, 6, 5}, index.search("java", 0, 10).ids());
+    }
+
+    @Test
+    public void pagesThroughResults() {
+        SearchIndex.Hits page = index.search("java", 1, 1);
+        assertEquals(3, page.total());
+        assertArrayEquals(new int[] {1}, page.ids());
+        assertEquals(0, index.search("java", 3, 10).ids().length);
+    }
+
+    @Test
+    public void updatesAndDeletesAreReflected() {
+        index.onUpdated(new Message(2, 1, "Kotlin and Java", 200));
+        index.onDeleted(new Message(3, 2, "java java java", 300));
+
+        assertArrayEquals(new int[] {1, 2, 5}, sorted(index.search("java", 0, 10).ids()));
+        assertEquals(0, index.search("coroutines", 0, 10).total());
+        assertEquals(4, index.documents());
+    }
+
+    private static int[] sorted(int[] ids) {
+        int[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,102 @@
+package org.paul.restlearning.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(4, new MpscRingBuffer<Integer>(4).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+    }
+
+    @Test
+    public void offerFailsWhenFullAndPollReturnsInOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) assertTrue(buffer.offer(i));
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 10));
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void drainToStopsAtMax() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(8);
+        for (int i = 0; i < 5; i++) buffer.offer(i);
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(List.of(0, 1, 2), drained);
+        assertEquals(2, buffer.size());
+    }
+
+    // Producers spin on a full buffer while the consumer drains; every element must arrive exactly
+    // once, and each producer's elements in the order it offered them.
+    @Test
+    public void concurrentProducersDeliverEverythingInPerProducerOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < perProducer; i++) {
+                    Long element = producer << 32 | i;
+                    while (!buffer.offer(element)) Thread.yield();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] next = new long[producers];
+        List<Long> batch = new ArrayList<>();
+        int received = 0;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        start.countDown();
+        while (received < producers * perProducer) {
+            if (System.nanoTime() > deadline) fail("only " + received + " elements arrived");
+            batch.clear();
+            if (buffer.drainTo(batch, 32) == 0) {
+                Thread.yield();
+                continue;
+            }
+            for (long element : batch) {
+                int producer = (int) (element >>> 32);
+                assertEquals("producer " + producer, next[producer], element & 0xffffffffL);
+                next[producer]++;
+            }
+            received += batch.size();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertNull(buffer.poll());
+        for (int p = 0; p < producers; p++) assertEquals(perProducer, next[p]);
+    }
+}
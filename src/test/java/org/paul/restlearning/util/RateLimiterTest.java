@@ -0,0 +1,80 @@
+package org.paul.restlearning.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+    private RateLimiter limiter;
+
+    @After
+    public void close() {
+        if (limiter != null) limiter.close();
+    }
+
+    @Test
+    public void burstIsGrantedAtOnceThenRefused() {
+        limiter = new RateLimiter(1, 5, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 5; i++) assertEquals("permit " + i, 0, limiter.tryAcquire("a"));
+
+        long wait = limiter.tryAcquire("a");
+        assertTrue("wait " + wait, wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, limiter.rejected());
+    }
+
+    @Test
+    public void keysHaveSeparateBuckets() {
+        limiter = new RateLimiter(1, 2, 1, TimeUnit.HOURS);
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("a");
+        assertTrue(limiter.tryAcquire("a") > 0);
+
+        assertEquals(0, limiter.tryAcquire("b"));
+        assertEquals(2, limiter.keys());
+    }
+
+    @Test
+    public void permitsRefillAtTheSustainedRate() throws InterruptedException {
+        limiter = new RateLimiter(20, 2, 1, TimeUnit.HOURS);
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertEquals(0, limiter.tryAcquire("a"));
+
+        long wait = limiter.tryAcquire("a");
+        assertTrue("wait " + wait, wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(50));
+
+        TimeUnit.NANOSECONDS.sleep(wait + TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(0, limiter.tryAcquire("a"));
+        // one interval earned one permit, not a new burst
+        assertTrue(limiter.tryAcquire("a") > 0);
+    }
+
+    @Test
+    public void acquireOrThrowReportsRetryAfterInWholeSeconds() {
+        limiter = new RateLimiter(0.5, 1, 1, TimeUnit.HOURS);
+        limiter.acquireOrThrow("a", "account");
+        try {
+            limiter.acquireOrThrow("a", "account");
+            fail("expected the second permit to be refused");
+        } catch (TooManyRequestsException e) {
+            assertEquals(2, e.getRetryAfterSeconds());
+        }
+    }
+
+    @Test
+    public void evictIdleDropsOnlyRefilledKeys() throws InterruptedException {
+        limiter = new RateLimiter(10, 1, 1, TimeUnit.HOURS);
+        limiter.tryAcquire("idle");
+        TimeUnit.MILLISECONDS.sleep(150);
+        limiter.tryAcquire("busy");
+        limiter.tryAcquire("busy");
+
+        limiter.evictIdle();
+        assertEquals(1, limiter.keys());
+        assertTrue(limiter.tryAcquire("busy") > 0);
+    }
+}